@@ -0,0 +1,68 @@
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 目的目录中的校验清单 jfile.crc32c，每行一个文件：8位十六进制 CRC32C、文件大小、文件名，用空格分隔。
+ * 写入复用 FinishedJournal 的组提交；同名文件出现多次时以最后一行为准，校验值为 - 的行表示文件已删除。
+ */
+public class ChecksumManifest implements Closeable {
+
+    public static final String NAME = "jfile.crc32c";
+
+    public static class Entry {
+        public final long crc;
+        public final long size;
+
+        Entry(long crc, long size) {
+            this.crc = crc;
+            this.size = size;
+        }
+    }
+
+    private final FinishedJournal journal;
+
+    public ChecksumManifest(Path dir, FinishedJournal.Fsync fsync, long fsyncMillis) throws IOException {
+        this.journal = new FinishedJournal(dir.resolve(NAME), fsync, fsyncMillis);
+    }
+
+    public void record(String name, long size, long crc) throws IOException, InterruptedException {
+        journal.append(String.format("%08x %d %s", crc, size, name));
+    }
+
+    public void remove(String name) throws IOException, InterruptedException {
+        journal.append("- - " + name);
+    }
+
+    /**
+     * 读取 dir 中的清单，文件名到校验值；没有清单时返回空表
+     */
+    public static Map<String, Entry> read(Path dir) throws IOException {
+        Map<String, Entry> entries = new LinkedHashMap<>();
+        Path path = dir.resolve(NAME);
+        if (!Files.exists(path)) return entries;
+        try (BufferedReader reader = Files.newBufferedReader(path, Charset.defaultCharset())) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(" ", 3);
+                if (parts.length < 3) continue; // 写入时崩溃留下的半行
+                if (parts[0].equals("-")) {
+                    entries.remove(parts[2]);
+                    continue;
+                }
+                entries.put(parts[2], new Entry(Long.parseLong(parts[0], 16), Long.parseLong(parts[1])));
+            }
+        }
+        return entries;
+    }
+
+    @Override
+    public void close() {
+        journal.close();
+    }
+}
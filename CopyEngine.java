@@ -0,0 +1,136 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * 文件复制引擎，每次运行通过 --engine 选择一种。
+ * channel: FileChannel.transferTo 零拷贝，数据不经过用户态缓冲区（默认）
+ * stream:  原来的 8KB 缓冲流复制，作为不支持 transferTo 时的兜底
+ * direct:  O_DIRECT 读写，不经过页缓存，见 DirectCopyEngine
+ * 需要校验值时，复制过程中顺带计算内容的 CRC32C，不再单独读取源文件。
+ * 打开目的文件时不截断，写完后再截断到复制的长度，保留 Preallocator 预先分配的块。
+ */
+public interface CopyEngine {
+
+    /**
+     * 将 srcFile 完整复制到 dstFile，返回复制的字节数
+     */
+    default long copy(File srcFile, File dstFile) throws IOException {
+        return copy(srcFile, dstFile, null);
+    }
+
+    /**
+     * 同上，crc 不为 null 时把复制内容的 CRC32C 写入 crc[0]
+     */
+    long copy(File srcFile, File dstFile, long[] crc) throws IOException;
+
+    /**
+     * size 字节的源文件最多占用的目的空间，复制前按此预留
+     */
+    default long maxOutput(long size) {
+        return size;
+    }
+
+    /**
+     * 目的文件名在源文件名后追加的扩展名
+     */
+    default String extension() {
+        return "";
+    }
+
+    String name();
+
+    static CopyEngine forName(String name) {
+        switch (name) {
+            case "channel":
+                return new ChannelEngine();
+            case "stream":
+                return new StreamEngine();
+            case "direct":
+                return new DirectCopyEngine();
+            default:
+                throw new IllegalArgumentException("No such copy engine: " + name);
+        }
+    }
+
+    class ChannelEngine implements CopyEngine {
+
+        private static final int BUFFER_SIZE = 1024 * 1024;
+
+        @Override
+        public long copy(File srcFile, File dstFile, long[] crc) throws IOException {
+            if (crc != null) return copyHashing(srcFile, dstFile, crc);
+            try (FileChannel in = FileChannel.open(srcFile.toPath(), StandardOpenOption.READ);
+                 FileChannel out = FileChannel.open(dstFile.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+                long size = in.size();
+                long position = 0;
+                while (position < size) {
+                    long count = in.transferTo(position, size - position, out);
+                    if (count <= 0) break; // 源文件被截断
+                    position += count;
+                }
+                out.truncate(position);
+                return position;
+            }
+        }
+
+        // transferTo 的数据不经过用户态，无法计算校验值，改为经过直接缓冲区读写
+        private static long copyHashing(File srcFile, File dstFile, long[] crc) throws IOException {
+            CRC32C checksum = new CRC32C();
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            long total = 0;
+            try (FileChannel in = FileChannel.open(srcFile.toPath(), StandardOpenOption.READ);
+                 FileChannel out = FileChannel.open(dstFile.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+                while (in.read(buffer) >= 0) {
+                    buffer.flip();
+                    buffer.mark();
+                    checksum.update(buffer);
+                    buffer.reset();
+                    total += buffer.remaining();
+                    while (buffer.hasRemaining()) out.write(buffer);
+                    buffer.clear();
+                }
+                out.truncate(total);
+            }
+            crc[0] = checksum.getValue();
+            return total;
+        }
+
+        @Override
+        public String name() {
+            return "channel";
+        }
+    }
+
+    class StreamEngine implements CopyEngine {
+
+        @Override
+        public long copy(File srcFile, File dstFile, long[] crc) throws IOException {
+            byte[] bytes = new byte[8 * 1024];
+            long total = 0;
+            CRC32C checksum = crc == null ? null : new CRC32C();
+            try (InputStream in = new BufferedInputStream(new FileInputStream(srcFile));
+                 FileChannel channel = FileChannel.open(dstFile.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+                OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel));
+                int count;
+                while ((count = in.read(bytes)) > 0) {
+                    out.write(bytes, 0, count);
+                    if (checksum != null) checksum.update(bytes, 0, count);
+                    total += count;
+                }
+                out.flush();
+                channel.truncate(total);
+            }
+            if (checksum != null) crc[0] = checksum.getValue();
+            return total;
+        }
+
+        @Override
+        public String name() {
+            return "stream";
+        }
+    }
+}
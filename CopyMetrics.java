@@ -0,0 +1,180 @@
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * 运行指标：复制的文件数和字节数、扫描速度、任务队列长度、复制耗时和空闲线程唤醒延迟的分布，以及每个目的目录的指标。
+ * 复制线程只做 LongAdder 加法和直方图记录，不加锁；速率由统计线程每个周期采样一次计算。
+ * 注册为 JMX MBean（JFile:type=Copy 和 JFile:type=Destination,name=目录），可用 jconsole 查看，
+ * 也可以每个周期打印一行统计。
+ */
+public class CopyMetrics implements CopyMetricsMBean {
+
+    private final LongAdder filesCopied = new LongAdder();
+    private final LongAdder bytesCopied = new LongAdder();
+    private final LongAdder filesScanned = new LongAdder();
+    private final LatencyHistogram copyLatency = new LatencyHistogram();
+    private final LatencyHistogram wakeLatency = new LatencyHistogram(); // 空闲线程从新任务入队到开始复制
+    private volatile TaskQueue queue;
+    private volatile DestinationMetrics[] destinations = new DestinationMetrics[0];
+    private ScheduledExecutorService sampler;
+    private long lastTick = System.nanoTime();
+    private long lastFiles;
+    private long lastBytes;
+    private long lastScanned;
+    private volatile double filesPerSecond;
+    private volatile double bytesPerSecond;
+    private volatile double scannedPerSecond;
+
+    public void scanned() {
+        filesScanned.increment();
+    }
+
+    public void copied(DstScheduler.Destination dst, long bytes, long nanos) {
+        filesCopied.increment();
+        bytesCopied.add(bytes);
+        copyLatency.record(nanos);
+        DestinationMetrics[] d = destinations;
+        if (dst.id < d.length) d[dst.id].record(bytes, nanos);
+    }
+
+    public void woke(long nanos) {
+        wakeLatency.record(nanos);
+    }
+
+    /**
+     * 关联任务队列和目的目录，并注册 JMX MBean
+     */
+    public void bind(TaskQueue queue, DstScheduler scheduler) {
+        this.queue = queue;
+        List<DstScheduler.Destination> list = scheduler.destinations();
+        DestinationMetrics[] d = new DestinationMetrics[list.size()];
+        for (DstScheduler.Destination dst : list) d[dst.id] = new DestinationMetrics(dst);
+        destinations = d;
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("JFile:type=Copy");
+            if (!server.isRegistered(name)) server.registerMBean(this, name);
+            for (DstScheduler.Destination dst : list) {
+                ObjectName dstName = new ObjectName("JFile:type=Destination,name=" + ObjectName.quote(dst.dir));
+                if (server.isRegistered(dstName)) server.unregisterMBean(dstName);
+                server.registerMBean(d[dst.id], dstName);
+            }
+        } catch (JMException e) {
+            Log.warn("error: 注册 JMX 失败: " + e);
+        }
+    }
+
+    /**
+     * 每 intervalMillis 采样一次速率，print 为 true 时打印一行统计
+     */
+    public void start(long intervalMillis, boolean print) {
+        sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "copy-metrics");
+            t.setDaemon(true);
+            return t;
+        });
+        sampler.scheduleAtFixedRate(() -> {
+            sample();
+            if (print) Log.info(getStatsLine());
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        if (sampler != null) sampler.shutdownNow();
+    }
+
+    private synchronized void sample() {
+        long now = System.nanoTime();
+        double seconds = Math.max(1e-3, (now - lastTick) / 1e9);
+        long files = filesCopied.sum(), bytes = bytesCopied.sum(), scanned = filesScanned.sum();
+        filesPerSecond = (files - lastFiles) / seconds;
+        bytesPerSecond = (bytes - lastBytes) / seconds;
+        scannedPerSecond = (scanned - lastScanned) / seconds;
+        for (DestinationMetrics d : destinations) d.sample(seconds);
+        lastTick = now;
+        lastFiles = files;
+        lastBytes = bytes;
+        lastScanned = scanned;
+    }
+
+    public LatencyHistogram copyLatency() {
+        return copyLatency;
+    }
+
+    public LatencyHistogram wakeLatency() {
+        return wakeLatency;
+    }
+
+    @Override
+    public String getStatsLine() {
+        StringBuilder sb = new StringBuilder(String.format(
+                "[统计] 复制 %d个 %.1f个/s %.1fMB/s | 扫描 %.0f个/s | 队列 %d | 耗时 p50 %.1fms p99 %.1fms",
+                getFilesCopied(), filesPerSecond, bytesPerSecond / 1024 / 1024, scannedPerSecond, getQueueDepth(),
+                getCopyLatencyP50Millis(), getCopyLatencyP99Millis()));
+        for (DestinationMetrics d : destinations) sb.append(" | ").append(d.statsLine());
+        return sb.toString();
+    }
+
+    @Override
+    public long getFilesCopied() {
+        return filesCopied.sum();
+    }
+
+    @Override
+    public long getBytesCopied() {
+        return bytesCopied.sum();
+    }
+
+    @Override
+    public long getFilesScanned() {
+        return filesScanned.sum();
+    }
+
+    @Override
+    public int getQueueDepth() {
+        TaskQueue q = queue;
+        return q == null ? 0 : q.size();
+    }
+
+    @Override
+    public double getFilesPerSecond() {
+        return filesPerSecond;
+    }
+
+    @Override
+    public double getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    @Override
+    public double getScannedPerSecond() {
+        return scannedPerSecond;
+    }
+
+    @Override
+    public double getCopyLatencyP50Millis() {
+        return copyLatency.percentile(50) / 1e6;
+    }
+
+    @Override
+    public double getCopyLatencyP99Millis() {
+        return copyLatency.percentile(99) / 1e6;
+    }
+
+    @Override
+    public double getCopyLatencyMaxMillis() {
+        return copyLatency.max() / 1e6;
+    }
+
+    @Override
+    public double getWakeLatencyMeanMillis() {
+        return wakeLatency.mean() / 1e6;
+    }
+}
@@ -0,0 +1,29 @@
+/**
+ * 通过 JMX 暴露的整体运行指标，ObjectName 为 JFile:type=Copy。速率为最近一个统计周期的值
+ */
+public interface CopyMetricsMBean {
+
+    long getFilesCopied();
+
+    long getBytesCopied();
+
+    long getFilesScanned();
+
+    int getQueueDepth();
+
+    double getFilesPerSecond();
+
+    double getBytesPerSecond();
+
+    double getScannedPerSecond();
+
+    double getCopyLatencyP50Millis();
+
+    double getCopyLatencyP99Millis();
+
+    double getCopyLatencyMaxMillis();
+
+    double getWakeLatencyMeanMillis();
+
+    String getStatsLine();
+}
@@ -0,0 +1,25 @@
+/**
+ * 待复制的文件，大小和修改时间在扫描时随目录列表一起取得，排序不需要再读文件属性
+ */
+public class CopyTask {
+
+    final String path;
+    final long size;
+    final long mtime; // 修改时间，毫秒
+    final long queuedAt; // 入队时间，System.nanoTime()
+    int attempts; // 复制失败的次数
+    boolean modified; // 增量同步时，上次复制之后源文件被修改过
+    Dedup.Content content; // 去重时这个文件是一份内容的第一份，复制完成后其余的文件建链接
+
+    public CopyTask(String path, long size, long mtime) {
+        this.path = path;
+        this.size = size;
+        this.mtime = mtime;
+        this.queuedAt = System.nanoTime();
+    }
+
+    @Override
+    public String toString() {
+        return path;
+    }
+}
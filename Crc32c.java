@@ -0,0 +1,74 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * CRC32C 工具：整文件计算，以及把两段数据的校验值合并成整体的校验值（zlib crc32_combine 的算法），
+ * 分段并行复制时每段各自计算，最后按顺序合并。
+ */
+public final class Crc32c {
+
+    private static final long POLY = 0x82F63B78L; // CRC32C 反射多项式
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private Crc32c() {
+    }
+
+    /**
+     * 读取整个文件计算校验值
+     */
+    public static long of(Path file) throws IOException {
+        CRC32C crc = new CRC32C();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (in.read(buffer) >= 0) {
+                buffer.flip();
+                crc.update(buffer);
+                buffer.clear();
+            }
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * crc1 为前一段的校验值，crc2 为紧接着的 len2 字节的校验值，返回两段连起来的校验值
+     */
+    public static long combine(long crc1, long crc2, long len2) {
+        if (len2 <= 0) return crc1;
+        long[] even = new long[32]; // 2^n 个 0 比特的运算矩阵
+        long[] odd = new long[32];
+        odd[0] = POLY;
+        long row = 1;
+        for (int n = 1; n < 32; n++) {
+            odd[n] = row;
+            row <<= 1;
+        }
+        square(even, odd); // 2 个 0 比特
+        square(odd, even); // 4 个 0 比特
+        do {
+            square(even, odd);
+            if ((len2 & 1) != 0) crc1 = times(even, crc1);
+            len2 >>= 1;
+            if (len2 == 0) break;
+            square(odd, even);
+            if ((len2 & 1) != 0) crc1 = times(odd, crc1);
+            len2 >>= 1;
+        } while (len2 != 0);
+        return crc1 ^ crc2;
+    }
+
+    private static long times(long[] mat, long vec) {
+        long sum = 0;
+        for (int i = 0; vec != 0; i++, vec >>>= 1) {
+            if ((vec & 1) != 0) sum ^= mat[i];
+        }
+        return sum;
+    }
+
+    private static void square(long[] square, long[] mat) {
+        for (int n = 0; n < 32; n++) square[n] = times(mat, mat[n]);
+    }
+}
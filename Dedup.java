@@ -0,0 +1,322 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32C;
+
+/**
+ * 内容去重：源目录中内容相同的文件只复制一份，其余在第一份所在的目的目录中建硬链接。
+ * 先按大小分组，大小第一次出现的文件直接入队，不读内容；同样大小的文件交给去重线程，
+ * 先比较首尾各 64KB 的 CRC32C，相同时再比较整个文件的 SHA-256。
+ * 去重线程和复制线程同时运行：重复的文件等第一份复制完成后建链接，不占用复制线程和磁盘空间。
+ */
+public class Dedup {
+
+    public static final long MIN_SIZE = 4096; // 更小的文件直接复制
+    private static final int PARTIAL_SIZE = 64 * 1024;
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    /**
+     * 去重的结果：需要复制的文件和可以建链接的文件
+     */
+    public interface Handler {
+        void copy(CopyTask task) throws InterruptedException;
+
+        void link(CopyTask duplicate, Content content) throws InterruptedException;
+    }
+
+    /**
+     * 重复的文件交给第一份之后的处理方式
+     */
+    enum Attach {
+        LINK, // 第一份已复制完成，建链接
+        WAIT, // 第一份还在复制，等它完成
+        COPY  // 第一份已暂缓或复制失败，各自复制
+    }
+
+    /**
+     * 一份内容，第一次出现的文件负责复制，其余的文件等它复制完成
+     */
+    public static class Content {
+        final String path; // 第一份的源文件
+        private long partial;
+        private boolean partialDone;
+        private byte[] full;
+        private String dir; // 复制到的目的目录
+        private File copy;
+        private long crc;
+        private List<CopyTask> waiting = new ArrayList<>();
+        private boolean failed;
+
+        Content(String path) {
+            this.path = path;
+        }
+
+        Content(String path, long partial, byte[] full) {
+            this.path = path;
+            this.partial = partial;
+            this.partialDone = true;
+            this.full = full;
+        }
+
+        // 只在同样大小的一组加锁时调用；源文件已不可读时返回 -1 或 null，不和它比较
+        long partial(long size) {
+            if (!partialDone) {
+                try {
+                    partial = partialHash(path, size);
+                } catch (IOException e) {
+                    partial = -1;
+                }
+                partialDone = true;
+            }
+            return partial;
+        }
+
+        byte[] full() {
+            if (full == null) {
+                try {
+                    full = fullHash(path);
+                } catch (IOException e) {
+                    return null;
+                }
+            }
+            return full;
+        }
+
+        // 和 copied/failed 在同一个锁下判断，第一份放弃之后来的文件不会留在 waiting 中
+        synchronized Attach attach(CopyTask duplicate) {
+            if (copy != null) return Attach.LINK;
+            if (failed) return Attach.COPY;
+            waiting.add(duplicate);
+            return Attach.WAIT;
+        }
+
+        /**
+         * 第一份复制完成，返回等待建链接的文件
+         */
+        public synchronized List<CopyTask> copied(String dir, File copy, long crc) {
+            this.dir = dir;
+            this.copy = copy;
+            this.crc = crc;
+            return drain();
+        }
+
+        /**
+         * 第一份暂缓复制，返回等待的文件，由调用者改为各自复制
+         */
+        public synchronized List<CopyTask> failed() {
+            failed = true;
+            return drain();
+        }
+
+        // 已复制完成或已放弃，并且没有等待的文件
+        synchronized boolean settled() {
+            return (copy != null || failed) && waiting.isEmpty();
+        }
+
+        // 已复制完成或已放弃时取出仍在等待的文件，第一份还在复制时返回空列表
+        synchronized List<CopyTask> orphans() {
+            return copy != null || failed ? drain() : Collections.emptyList();
+        }
+
+        private List<CopyTask> drain() {
+            if (waiting.isEmpty()) return Collections.emptyList();
+            List<CopyTask> list = waiting;
+            waiting = new ArrayList<>();
+            return list;
+        }
+
+        public synchronized String dir() {
+            return dir;
+        }
+
+        public synchronized File copy() {
+            return copy;
+        }
+
+        public synchronized long crc() {
+            return crc;
+        }
+    }
+
+    private final ConcurrentHashMap<Long, List<Content>> bySize = new ConcurrentHashMap<>();
+    private final ExecutorService hashers;
+    private final Handler handler;
+    private final AtomicInteger pending = new AtomicInteger();
+    private final LongAdder linkedFiles = new LongAdder();
+    private final LongAdder linkedBytes = new LongAdder();
+
+    public Dedup(int threads, Handler handler) {
+        this.handler = handler;
+        AtomicInteger n = new AtomicInteger();
+        this.hashers = Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+            Thread t = new Thread(r, "dedup-" + n.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * 扫描到的文件：大小第一次出现时直接交给 handler 复制，否则交给去重线程比较内容
+     */
+    public void add(CopyTask task) throws InterruptedException {
+        if (task.size < MIN_SIZE) {
+            handler.copy(task);
+            return;
+        }
+        Content first = new Content(task.path);
+        List<Content> group = bySize.putIfAbsent(task.size, new ArrayList<>(Collections.singletonList(first)));
+        if (group == null) {
+            task.content = first;
+            handler.copy(task);
+            return;
+        }
+        pending.incrementAndGet();
+        hashers.execute(() -> {
+            try {
+                classify(task, group);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                if (pending.decrementAndGet() == 0) {
+                    synchronized (this) {
+                        notifyAll();
+                    }
+                }
+            }
+        });
+    }
+
+    private void classify(CopyTask task, List<Content> group) throws InterruptedException {
+        Content match = null;
+        try {
+            long partial = partialHash(task.path, task.size);
+            // 同样大小的一组加锁比较，内容相同的两个文件不会都被当作第一份
+            synchronized (group) {
+                byte[] full = null;
+                for (Content c : group) {
+                    if (c.partial(task.size) != partial) continue;
+                    if (full == null) full = fullHash(task.path);
+                    if (Arrays.equals(c.full(), full)) {
+                        match = c;
+                        break;
+                    }
+                }
+                if (match == null) {
+                    task.content = new Content(task.path, partial, full);
+                    group.add(task.content);
+                }
+            }
+        } catch (IOException e) {
+            Log.warn("error: 读取 " + task.path + " 计算去重指纹失败，直接复制: " + e);
+        }
+        if (match == null) {
+            handler.copy(task);
+            return;
+        }
+        switch (match.attach(task)) {
+            case LINK:
+                handler.link(task, match);
+                break;
+            case COPY:
+                handler.copy(task);
+                break;
+            default:
+                if (Log.fileEnabled()) Log.file("duplicate: " + task.path + " = " + match.path);
+        }
+    }
+
+    /**
+     * 去掉已复制完成（或已放弃）且没有等待文件的内容，循环扫描时每轮开始调用，分组不会随运行时间一直增长；
+     * 之后扫描到与它们相同的文件会再复制一份。已复制完成或已放弃却仍有等待的文件时，这些文件各自复制，不会被遗漏
+     */
+    public void prune() throws InterruptedException {
+        List<CopyTask> orphans = new ArrayList<>();
+        for (Long size : bySize.keySet()) {
+            bySize.computeIfPresent(size, (k, group) -> {
+                synchronized (group) {
+                    for (Content c : group) orphans.addAll(c.orphans());
+                    group.removeIf(Content::settled);
+                    return group.isEmpty() ? null : group;
+                }
+            });
+        }
+        for (CopyTask task : orphans) handler.copy(task);
+    }
+
+    /**
+     * 等待已交给去重线程的文件处理完，之后才能通知复制线程没有更多任务
+     */
+    public synchronized void awaitIdle() throws InterruptedException {
+        while (pending.get() > 0) wait();
+    }
+
+    public void linked(long size) {
+        linkedFiles.increment();
+        linkedBytes.add(size);
+    }
+
+    public long linkedFiles() {
+        return linkedFiles.sum();
+    }
+
+    public long linkedBytes() {
+        return linkedBytes.sum();
+    }
+
+    public void shutdown() {
+        hashers.shutdownNow();
+    }
+
+    // 首尾各 64KB 的 CRC32C，小于 128KB 的文件即整个文件
+    static long partialHash(String path, long size) throws IOException {
+        CRC32C crc = new CRC32C();
+        ByteBuffer buffer = ByteBuffer.allocate(PARTIAL_SIZE);
+        try (FileChannel in = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            update(crc, in, buffer, 0);
+            if (size > PARTIAL_SIZE) update(crc, in, buffer, Math.max(PARTIAL_SIZE, size - PARTIAL_SIZE));
+        }
+        return crc.getValue();
+    }
+
+    private static void update(CRC32C crc, FileChannel in, ByteBuffer buffer, long position) throws IOException {
+        buffer.clear();
+        while (buffer.hasRemaining()) {
+            int n = in.read(buffer, position + buffer.position());
+            if (n < 0) break;
+        }
+        buffer.flip();
+        crc.update(buffer);
+    }
+
+    static byte[] fullHash(String path) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        try (FileChannel in = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            while (in.read(buffer) >= 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        return digest.digest();
+    }
+}
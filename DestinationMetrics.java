@@ -0,0 +1,100 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 单个目的目录的写入量、吞吐、复制耗时分布和所在卷的可用空间变化趋势
+ */
+public class DestinationMetrics implements DestinationMetricsMBean {
+
+    private final DstScheduler.Destination destination;
+    private final LongAdder files = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private long lastBytes;
+    private long lastFree;
+    private volatile double bytesPerSecond;
+    private volatile double freePerSecond;
+
+    DestinationMetrics(DstScheduler.Destination destination) {
+        this.destination = destination;
+        this.lastFree = destination.volume.usable();
+    }
+
+    void record(long bytes, long nanos) {
+        files.increment();
+        this.bytes.add(bytes);
+        latency.record(nanos);
+    }
+
+    /**
+     * 由统计线程每个周期调用一次
+     */
+    void sample(double seconds) {
+        long bytesNow = bytes.sum();
+        long freeNow = destination.volume.usable();
+        bytesPerSecond = (bytesNow - lastBytes) / seconds;
+        freePerSecond = (freeNow - lastFree) / seconds;
+        lastBytes = bytesNow;
+        lastFree = freeNow;
+    }
+
+    String statsLine() {
+        return String.format("%s %.1fMB/s %d/%d 剩余%.1fGB(%+.1fMB/s)", destination.dir,
+                bytesPerSecond / 1024 / 1024, destination.active, destination.limit,
+                getFreeBytes() / 1024.0 / 1024 / 1024, freePerSecond / 1024 / 1024);
+    }
+
+    @Override
+    public String getDir() {
+        return destination.dir;
+    }
+
+    @Override
+    public String getVolume() {
+        return destination.volume.toString();
+    }
+
+    @Override
+    public long getFilesWritten() {
+        return files.sum();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytes.sum();
+    }
+
+    @Override
+    public double getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    @Override
+    public int getActive() {
+        return destination.active;
+    }
+
+    @Override
+    public int getConcurrencyLimit() {
+        return destination.limit;
+    }
+
+    @Override
+    public long getFreeBytes() {
+        return destination.volume.usable();
+    }
+
+    @Override
+    public double getFreeBytesPerSecond() {
+        return freePerSecond;
+    }
+
+    @Override
+    public double getCopyLatencyP50Millis() {
+        return latency.percentile(50) / 1e6;
+    }
+
+    @Override
+    public double getCopyLatencyP99Millis() {
+        return latency.percentile(99) / 1e6;
+    }
+}
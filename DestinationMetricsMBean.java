@@ -0,0 +1,27 @@
+/**
+ * 通过 JMX 暴露的单个目的目录指标，ObjectName 为 JFile:type=Destination,name=目录
+ */
+public interface DestinationMetricsMBean {
+
+    String getDir();
+
+    String getVolume();
+
+    long getFilesWritten();
+
+    long getBytesWritten();
+
+    double getBytesPerSecond();
+
+    int getActive();
+
+    int getConcurrencyLimit();
+
+    long getFreeBytes();
+
+    double getFreeBytesPerSecond();
+
+    double getCopyLatencyP50Millis();
+
+    double getCopyLatencyP99Millis();
+}
@@ -1,10 +1,14 @@
 import java.io.*;
-import java.nio.file.FileStore;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.HashSet;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
 import java.util.concurrent.*;
 
@@ -24,18 +28,57 @@ public class DirCopy {
     private final int maxThreads;  // 最大线程数
     private final String srcDirPath;  // 源目录
     private final String finishedLogPath;
+    private final ResumeState resumeState; // 已完成文件的快照和日志
     private final boolean recursive; // 递归扫描
     private final boolean resume;
     private final boolean loop;
     private final ThreadPoolExecutor executor;
-    private final HashSet<File> dirSet=new HashSet<>();
+    private final ForkJoinPool walkPool = new ForkJoinPool(); // 并行扫描源目录
     private final ConcurrentLinkedQueue<String> dstDirStack
             = new ConcurrentLinkedQueue<>(); // 空闲磁盘队列
 
-    private final BlockingQueue<String> taskFileList=new LinkedBlockingQueue<>(1000);
+    private TaskQueue taskFileList; // 在 startCopy 中按排序策略创建
 //    private final ConcurrentLinkedQueue<String> finishedFileList = new ConcurrentLinkedQueue<>();
-    private final ConcurrentSkipListSet<String> allFileSet = new ConcurrentSkipListSet<>();
+    private final PathIndex allFileSet = new PathIndex(); // 所有扫描到及已完成的文件
     private final ScheduledThreadPoolExecutor scheduledExec = new ScheduledThreadPoolExecutor(1); // 单线程更新
+    private CopyEngine copyEngine = CopyEngine.forName("channel"); // 复制引擎，默认零拷贝
+    private ResumableCopy resumable; // 大文件分段复制并写检查点，中断后续传；null 为不分段
+    private int dstThreads = 1; // 每个目的磁盘同时写入的线程数上限，机械盘保持1
+    private long spaceSyncMillis = VolumeRegistry.DEFAULT_SYNC_MILLIS; // 重新读取磁盘可用空间的间隔
+    private int[] dstCaps; // 分别指定各目的目录的并发上限
+    private boolean adaptive = false; // 按实测吞吐自动调整各目的目录的并发数
+    private DstScheduler.Policy placement = DstScheduler.Policy.LEAST_LOADED; // 目的磁盘选择策略
+    private long[] weights; // round-robin 策略下各目的目录的权重
+    private DstScheduler scheduler;
+    private final ConcurrentLinkedQueue<CopyTask> deferredTasks = new ConcurrentLinkedQueue<>(); // 所有磁盘都放不下的文件
+    private final ConcurrentLinkedQueue<CopyTask> failedTasks = new ConcurrentLinkedQueue<>(); // 复制失败 3 次的文件
+    private TaskQueue.Order taskOrder = TaskQueue.Order.FIFO; // 任务排序策略
+    private long largeFileSize = 0; // 大于此值的文件走大文件通道，0 为不分通道
+    private int smallWorkers = 0; // 只复制小文件的线程数，0 为复制线程的一半
+    private int orderWindow = TaskQueue.DEFAULT_WINDOW; // 排序时队列中最多的任务数
+    private boolean watch = false; // 循环模式下用 WatchService 监听源目录
+    private int reconcileInterval = 600; // 监听模式下全量对账的间隔，单位s
+    private long settleMillis = 500; // 文件多久没有修改才算写完，单位ms
+    private FinishedJournal.Fsync fsync = FinishedJournal.Fsync.INTERVAL; // 完成记录的落盘策略
+    private boolean checksum = false; // 复制时计算 CRC32C 并写入目的目录的校验清单
+    private boolean sync = false; // 增量同步：按路径、大小和修改时间判断，修改过的文件重新复制
+    private boolean verify = false; // 复制后读回目的文件核对校验值
+    private int dedupThreads = 0; // 计算去重指纹的线程数，0 为不去重
+    private Dedup dedup; // 内容相同的文件只复制一份，其余建硬链接
+    private long packThreshold = 0; // 小于此大小的文件写入打包文件，0 为不打包
+    private long packSize = 1024L*1024*1024; // 每个打包文件的大小
+    private final Map<String,PackWriter> packs = new ConcurrentHashMap<>();
+    private final Map<String,ChecksumManifest> manifests = new ConcurrentHashMap<>();
+    private long fsyncMillis = 1000;
+    private FinishedJournal journal;
+    private Durability.Level durabilityLevel = Durability.Level.NONE; // 目的文件的落盘策略
+    private int durabilityFiles = 64;
+    private long durabilityMillis = 1000;
+    private Durability durability;
+    private Preallocator preallocator; // 复制前为大文件分配磁盘块，为 null 时不预分配
+    private boolean virtual = false; // 每个文件一个虚拟线程，代替固定的复制线程
+    private final CopyMetrics metrics = new CopyMetrics();
+    private int statsInterval = 10; // 打印统计的间隔秒数，0 为不打印
 
     public DirCopy() {
 
@@ -62,15 +105,8 @@ public class DirCopy {
 
         Path path = Paths.get(srcDirPath,"finishedFiles.txt");
         finishedLogPath=path.toString();
-        try {
-            File finishedLog = new File(finishedLogPath);
-            Scanner logScanner = new Scanner(finishedLog);
-            while (logScanner.hasNextLine()) {
-                allFileSet.add(logScanner.nextLine());
-            }
-        } catch (FileNotFoundException e) {
-            ; // can't do anything
-        }
+        resumeState=new ResumeState(path,16*1024*1024);
+        loadFinished();
         System.out.println("是否递归扫描所有子目录?\nY/N: ");
         this.recursive = sayYes(scanner.nextLine());
 
@@ -84,6 +120,12 @@ public class DirCopy {
         this.refreshInterval=scanner.nextInt();
     }
 
+    private void loadFinished() {
+        long start=System.currentTimeMillis();
+        long count=resumeState.load(allFileSet);
+        System.out.println("已读取完成记录 "+count+" 条，用时 "+(System.currentTimeMillis()-start)+"ms");
+    }
+
     private boolean sayYes(String str) {
         return (str.equals("Y") || str.equals("y")) ;
     }
@@ -109,15 +151,8 @@ public class DirCopy {
 
         Path path = Paths.get(srcDirPath,"finishedFiles.txt");
         finishedLogPath=path.toString();
-        try {
-            File finishedLog = new File(finishedLogPath);
-            Scanner logScanner = new Scanner(finishedLog);
-            while (logScanner.hasNextLine()) {
-                allFileSet.add(logScanner.nextLine());
-            }
-        } catch (FileNotFoundException e) {
-            ; // can't do anything
-        }
+        resumeState=new ResumeState(path,16*1024*1024);
+        loadFinished();
         this.recursive=recursive;
         this.resume=resume;
         this.loop=loop;
@@ -129,9 +164,37 @@ public class DirCopy {
         int refreshInterval=0, maxThreads=0;
         String srcDirPath = null;
         boolean recursive=false, resume=true, tmploop=false, interact=false;
+        String engine="channel";
+        long splitSize=0;
+        int splitThreads=4, dstThreads=0;
+        String compress="none";
+        long checkpointSize=256L*1024*1024;
+        long preallocateSize=0;
+        boolean virtual=false;
+        int compressLevel=6, compressThreads=Runtime.getRuntime().availableProcessors();
+        long spaceSyncMillis=VolumeRegistry.DEFAULT_SYNC_MILLIS;
+        int statsInterval=10, logSample=1;
+        String logLevel="info";
+        int[] dstCaps=null;
+        boolean adaptive=false;
+        boolean watch=false, checksum=false, verify=false, verifyOnly=false, sync=false, dedup=false;
+        int dedupThreads=2;
+        long packThreshold=0, packSize=1024L*1024*1024;
+        int reconcileInterval=600;
+        long settleMillis=500;
+        String fsync="interval";
+        long fsyncMillis=1000;
+        String durability="none";
+        int durabilityFiles=64;
+        long durabilityMillis=1000;
+        String placement="least-loaded", order="fifo";
+        long largeFileSize=0;
+        int smallWorkers=0;
+        int orderWindow=TaskQueue.DEFAULT_WINDOW;
+        long[] weights=null;
         LinkedList<String> dstDirList=new LinkedList<>();
 
-        if(args.length<12) {
+        if(args.length<12 && !Arrays.asList(args).contains("--verifyOnly")) {
             interact=true;
             System.out.println("缺少必要参数,问答输入!");
             DirCopy.help();
@@ -159,6 +222,124 @@ public class DirCopy {
                 case "--loop":
                     tmploop = Boolean.parseBoolean(args[i + 1]);
                     break;
+                case "--engine":
+                    engine = args[i + 1];
+                    break;
+                case "--split":
+                    splitSize = Long.parseLong(args[i + 1])*1024*1024;
+                    break;
+                case "--splitThreads":
+                    splitThreads = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--log":
+                    logLevel = args[i + 1];
+                    break;
+                case "--logSample":
+                    logSample = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--stats":
+                    statsInterval = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--spaceSync":
+                    spaceSyncMillis = Long.parseLong(args[i + 1])*1000;
+                    break;
+                case "--checkpoint":
+                    checkpointSize = Long.parseLong(args[i + 1])*1024*1024;
+                    break;
+                case "--virtual":
+                    virtual = Boolean.parseBoolean(args[i + 1]);
+                    break;
+                case "--preallocate":
+                    preallocateSize = Long.parseLong(args[i + 1])*1024*1024;
+                    break;
+                case "--durability":
+                    durability = args[i + 1];
+                    break;
+                case "--durabilityFiles":
+                    durabilityFiles = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--durabilityInterval":
+                    durabilityMillis = Long.parseLong(args[i + 1]);
+                    break;
+                case "--compress":
+                    compress = args[i + 1];
+                    break;
+                case "--compressLevel":
+                    compressLevel = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--compressThreads":
+                    compressThreads = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--dstThreads":
+                    dstThreads = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--dstCaps":
+                    String[] tmpCaps=args[i + 1].split(",");
+                    dstCaps=new int[tmpCaps.length];
+                    for(int j=0;j<tmpCaps.length;j++) dstCaps[j]=Integer.parseInt(tmpCaps[j].trim());
+                    break;
+                case "--adaptive":
+                    adaptive = Boolean.parseBoolean(args[i + 1]);
+                    break;
+                case "--watch":
+                    watch = Boolean.parseBoolean(args[i + 1]);
+                    break;
+                case "--reconcile":
+                    reconcileInterval = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--settle":
+                    settleMillis = Long.parseLong(args[i + 1]);
+                    break;
+                case "--sync":
+                    sync = Boolean.parseBoolean(args[i + 1]);
+                    break;
+                case "--dedup":
+                    dedup = Boolean.parseBoolean(args[i + 1]);
+                    break;
+                case "--dedupThreads":
+                    dedupThreads = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--pack":
+                    packThreshold = Long.parseLong(args[i + 1])*1024;
+                    break;
+                case "--packSize":
+                    packSize = Long.parseLong(args[i + 1])*1024*1024;
+                    break;
+                case "--checksum":
+                    checksum = Boolean.parseBoolean(args[i + 1]);
+                    break;
+                case "--verify":
+                    verify = Boolean.parseBoolean(args[i + 1]);
+                    break;
+                case "--verifyOnly":
+                    verifyOnly = Boolean.parseBoolean(args[i + 1]);
+                    break;
+                case "--fsync":
+                    fsync = args[i + 1];
+                    break;
+                case "--fsyncInterval":
+                    fsyncMillis = Long.parseLong(args[i + 1]);
+                    break;
+                case "--placement":
+                    placement = args[i + 1];
+                    break;
+                case "--order":
+                    order = args[i + 1];
+                    break;
+                case "--orderWindow":
+                    orderWindow = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--largeFile":
+                    largeFileSize = Long.parseLong(args[i + 1])*1024*1024;
+                    break;
+                case "--smallWorkers":
+                    smallWorkers = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--weights":
+                    String[] tmpWeights=args[i + 1].split(",");
+                    weights=new long[tmpWeights.length];
+                    for(int j=0;j<tmpWeights.length;j++) weights[j]=Long.parseLong(tmpWeights[j].trim());
+                    break;
                 default:
                     DirCopy.help();
                     System.out.println("No such option: "+args[i]);
@@ -167,8 +348,46 @@ public class DirCopy {
         }
 
         DirCopy dirCopy=null;
+        Log.setLevel(Log.Level.valueOf(logLevel.toUpperCase()),logSample);
+        if(virtual && !VirtualThreads.enable()) Log.warn("当前 JDK 不支持虚拟线程（需要 JDK 21 及以上），使用固定的复制线程");
+        if(verifyOnly) { // 只按校验清单校验 --dst 目录，不复制
+            if(dstDirList.isEmpty()) {
+                DirCopy.help();
+                System.out.println("--verifyOnly true needs at least one --dst");
+                return;
+            }
+            long failures=new ManifestVerifier().verify(dstDirList,new VolumeRegistry());
+            Log.flush();
+            System.exit(failures==0?0:1);
+        }
         if(interact) dirCopy=new DirCopy();
         else dirCopy=new DirCopy(refreshInterval,maxThreads,srcDirPath,recursive,resume,tmploop,dstDirList);
+        CopyEngine copyEngine=CopyEngine.forName(engine);
+        if(compress.equals("gzip")) {
+            if(splitSize>0) System.out.println("--compress gzip 已按分块并行压缩，忽略 --split");
+            copyEngine=new GzipCopyEngine(compressLevel,compressThreads);
+        } else if(!compress.equals("none")) {
+            throw new IllegalArgumentException("No such compression: "+compress);
+        } else if(splitSize>0) copyEngine=new RangeCopyEngine(copyEngine,splitSize,splitThreads);
+        dirCopy.setCopyEngine(copyEngine);
+        if(checkpointSize>0 && splitSize<=0 && compress.equals("none") && !engine.equals("direct")) dirCopy.setResumable(new ResumableCopy(checkpointSize));
+        if(preallocateSize>0 && compress.equals("none")) dirCopy.setPreallocator(new Preallocator(preallocateSize)); // 压缩后的大小事先不知道
+        if(dstThreads==0) dstThreads=adaptive?8:1; // 自动调整时默认上限 8
+        dirCopy.setDstThreads(dstThreads);
+        dirCopy.setVirtual(VirtualThreads.enabled());
+        dirCopy.setSpaceSync(spaceSyncMillis);
+        dirCopy.setStatsInterval(statsInterval);
+        dirCopy.setAdaptive(adaptive,dstCaps);
+        dirCopy.setPlacement(DstScheduler.Policy.valueOf(placement.toUpperCase().replace('-','_')),weights);
+        dirCopy.setTaskOrder(TaskQueue.Order.valueOf(order.toUpperCase().replace('-','_')),largeFileSize,smallWorkers);
+        dirCopy.setOrderWindow(orderWindow);
+        dirCopy.setWatch(watch,reconcileInterval,settleMillis);
+        dirCopy.setFsync(FinishedJournal.Fsync.valueOf(fsync.toUpperCase()),fsyncMillis);
+        dirCopy.setDurability(Durability.Level.valueOf(durability.toUpperCase()),durabilityFiles,durabilityMillis);
+        dirCopy.setChecksum(checksum||verify,verify);
+        dirCopy.setSync(sync);
+        dirCopy.setDedup(dedup?dedupThreads:0);
+        dirCopy.setPack(packThreshold,packSize);
         System.out.println(dirCopy);
         dirCopy.startCopy();
 
@@ -182,176 +401,637 @@ public class DirCopy {
         System.out.println("--resume true/false  determain whether save the finished file name to a log to skip it next time");
         System.out.println("--loop true/false  default:false, determain whether scan source dir in a loop with a fixed delay");
         System.out.println("--dst  which directory the file copied to, can be more than one destiny directory but better not on the same disk");
+        System.out.println("--engine channel/stream/direct  default:channel, zero-copy FileChannel transfer, the old buffered stream copy, or O_DIRECT reads and writes that bypass the page cache (falls back to normal I/O where the filesystem refuses it)");
+        System.out.println("--split  size in MB, files larger than this are split into ranges and copied by several threads, default:0 (off)");
+        System.out.println("--splitThreads  how many ranges of one large file are copied at the same time, default:4");
+        System.out.println("--checkpoint  size in MB, files larger than this are forced to disk and checkpointed every that many MB, an interrupted copy continues from the last checkpoint next time; not with --split, --compress or --engine direct, 0 for off, default:256");
+        System.out.println("--preallocate  size in MB, files at least this large get their whole size allocated on the destiny disk before copying, so they are not fragmented when several disks fill at once; uses fallocate --keep-size on Linux, not with --compress, default:0 (off)");
+        System.out.println("--compress none/gzip  default:none, write each file as name.gz, compressed in 1MB blocks by several threads, readable by gzip/zcat");
+        System.out.println("--compressLevel  1 (fastest) to 9 (smallest) with --compress gzip, default:6");
+        System.out.println("--compressThreads  threads compressing blocks, shared by all copy threads, default:number of cpus");
+        System.out.println("--virtual true/false  default:false, on JDK 21 or later run each file, the scan and the finishedFiles.txt writer on virtual threads instead of a fixed pool of copy threads; the same number of files is copied at a time");
+        System.out.println("--dstThreads  max files written to one destiny directory at the same time, default:1, or 8 with --adaptive true");
+        System.out.println("--dstCaps  comma separated --dstThreads for each destiny directory, eg: 8,1,1");
+        System.out.println("--log quiet/info/file  quiet: only errors and warnings, info: also progress and stats, file: also one line per file, default:info");
+        System.out.println("--logSample  with --log file, print about 1 of every N per-file lines, default:1");
+        System.out.println("--stats  seconds between one-line stats (throughput, queue depth, latency, free space per disk), 0 for none, default:10; metrics are also exposed via JMX under JFile:*");
+        System.out.println("--spaceSync  seconds between re-reading the free space of the destiny disks, it is also re-read every tenth of that while a disk is nearly full (under 1GB), default:5");
+        System.out.println("--adaptive true/false  default:false, tune the concurrency of each destiny directory between 1 and its cap by measured throughput");
+        System.out.println("--placement least-loaded/most-free/round-robin  default:least-loaded, how to choose the destiny directory for each file");
+        System.out.println("--weights  comma separated weights of the destiny directories for --placement round-robin, eg: 2,1,1");
+        System.out.println("--order fifo/size-desc/small-first/newest-first  default:fifo, which file is copied first; files are sorted within a window of --orderWindow scanned files, not the whole tree");
+        System.out.println("--orderWindow  with a sorted --order, how many scanned files wait in the queue to be sorted, about 200 bytes of memory each; the scanner waits while it is full, default:"+TaskQueue.DEFAULT_WINDOW);
+        System.out.println("--largeFile  size in MB, files larger than this go to a separate lane so small files are not blocked behind them, default:0 (one lane)");
+        System.out.println("--smallWorkers  how many copy threads only take small files when --largeFile is set, default:half of the copy threads");
+        System.out.println("--watch true/false  default:false, with --loop true, pick up new files by WatchService instead of rescanning every interval");
+        System.out.println("--reconcile  seconds between full rescans in watch mode, default:600");
+        System.out.println("--settle  milliseconds a file must stay unmodified before it is copied in watch mode, default:500");
+        System.out.println("--sync true/false  default:false, also copy files again when their size or modification time changed since the last copy, to the same destiny directory");
+        System.out.println("--dedup true/false  default:false, copy files with the same content only once and hard link the others next to the first copy");
+        System.out.println("--dedupThreads  how many threads read files of the same size to compare their content with --dedup true, default:2");
+        System.out.println("--pack  size in KB, files smaller than this are appended to "+PackWriter.PREFIX+"NNNNN"+PackWriter.SUFFIX+" in the destiny directory instead of one file each, tar -xf extracts them, default:0 (off)");
+        System.out.println("--packSize  size in MB of each "+PackWriter.SUFFIX+" file with --pack, default:1024");
+        System.out.println("--checksum true/false  default:false, compute CRC32C while copying and write it to "+ChecksumManifest.NAME+" in each destiny directory");
+        System.out.println("--verify true/false  default:false, read back each copied file and compare its CRC32C, implies --checksum true");
+        System.out.println("--verifyOnly true  check the --dst directories against their "+ChecksumManifest.NAME+", disks in parallel, no copying");
+        System.out.println("--fsync none/batch/interval  default:interval, when finishedFiles.txt is forced to disk");
+        System.out.println("--fsyncInterval  milliseconds between forces of finishedFiles.txt with --fsync interval, default:1000");
+        System.out.println("--durability none/file/batch/end  default:none, when copied files are forced to disk; a file is written to finishedFiles.txt only after it is on disk. file: each file before its rename, batch: a background thread forces --durabilityFiles files or what waited --durabilityInterval ms at a time, end: all files when the copy finishes (with --loop true it is changed to batch)");
+        System.out.println("--durabilityFiles  how many copied files are forced together with --durability batch, default:64");
+        System.out.println("--durabilityInterval  milliseconds a copied file waits at most before it is forced with --durability batch, default:1000");
         System.out.println("eg: java DirCopy --interval 20 --threads 1 --src /G/Music --recursive true --resume true --dstDir /E/DirCopy");
     }
 
 
     private void scanSrcDir() throws InterruptedException {
-        System.out.println("源目录:"+this.srcDirPath);
-        File srcDirFile = new File(srcDirPath);
-        File[] allFiles=srcDirFile.listFiles();
+        Log.info("源目录:"+this.srcDirPath);
+        retryDeferred(); // 上一轮放不下的文件再试一次
+        if(dedup!=null) dedup.prune(); // 上一轮已复制完的内容不再参与比较
 //        System.out.println("allFileSet size:"+allFileSet.size());
-
-        for (File file : allFiles) {
-            if(file.isFile() ){
-                addIfAbsent(file);
-            } else {
-                dirSet.add(file);
-            }
-        }
-
-        if(recursive) {
-            while (dirSet.isEmpty() == false) {
-                File file = dirSet.iterator().next();
-                dirSet.remove(file);
-                if (file.isFile()) {
-                    addIfAbsent(file);
-                } else {
-                    File[] tmpFiles=file.listFiles();
-                    for(File afile:tmpFiles) {
-                        if(afile.isFile()) {
-                            addIfAbsent(afile);
-                        }
-                        else dirSet.add(afile);
-                    }
-                }
-            }
-        }
+        DirWalker.walk(walkPool, Paths.get(srcDirPath), recursive, this::addIfAbsent);
 //        System.out.println("allFileSet size:"+allFileSet.size());
     }
 
-    private void addIfAbsent(File file) throws InterruptedException {
+    private void addIfAbsent(Path file, BasicFileAttributes attrs) throws InterruptedException {
+        metrics.scanned();
         String fname=file.toString().trim();
-        if ((allFileSet.add(fname)) && (!fname.equals(finishedLogPath)) ) {
-            System.out.println("add: "+file);
-            taskFileList.offer(fname,1000,TimeUnit.SECONDS);
-        }    
+        if(resumeState.isStateFile(fname)) return;
+        long size=attrs.size(), mtime=attrs.lastModifiedTime().toMillis();
+        CopyTask task=new CopyTask(fname,size,mtime);
+        if(sync) {
+            if(!allFileSet.add(ResumeState.syncKey(fname,size,mtime))) return; // 这个版本已复制或已在队列中
+            task.modified=!allFileSet.add(fname); // 路径出现过，说明复制之后被修改了
+        } else if(!allFileSet.add(fname)) return;
+        if(Log.fileEnabled()) Log.file((task.modified?"modified: ":"add: ")+file);
+        if(dedup!=null && !task.modified && size>=packThreshold) dedup.add(task); // 修改过的文件写回原处，打包的小文件不去重
+        else taskFileList.offer(task,1000,TimeUnit.SECONDS);
     }
     
     public void startCopy() throws InterruptedException {
-        // 开启定时刷新任务
-        if(loop) {
-            scheduledExec.scheduleWithFixedDelay(new Runnable() {
-                @Override
-                public void run() {
-                    try {
-                        scanSrcDir();
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
+        long startTime=System.nanoTime();
+        taskFileList=new TaskQueue(taskOrder,largeFileSize,taskOrder==TaskQueue.Order.FIFO?1000:orderWindow); // 排序时在更大的窗口内排序
+        if(dedupThreads>0) dedup=new Dedup(dedupThreads,new Dedup.Handler() {
+            @Override
+            public void copy(CopyTask task) throws InterruptedException {
+                taskFileList.offer(task,1000,TimeUnit.SECONDS);
+            }
+
+            @Override
+            public void link(CopyTask duplicate, Dedup.Content content) throws InterruptedException {
+                linkDuplicate(duplicate,content);
+            }
+        });
+        Runnable scanTask = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    scanSrcDir();
+                } catch (InterruptedException e) {
+                    Log.error("error: 扫描被中断", e);
                 }
-            }, 0, refreshInterval, TimeUnit.SECONDS);
-        } else {
-            scheduledExec.execute(new Runnable() {
-                @Override
-                public void run() {
-                    try {
-                        scanSrcDir();
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
+            }
+        };
+        Runnable scanOnceTask = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    scanTask.run();
+                    if(dedup!=null) dedup.awaitIdle(); // 去重线程还可能把文件放入队列
+                } catch (InterruptedException e) {
+                    Log.error("error: 等待去重被中断", e);
+                } finally {
+                    taskFileList.finish(); // 通知复制线程没有更多任务
                 }
-            });
+            }
+        };
+        if(virtual) scheduledExec.setThreadFactory(VirtualThreads.factory("scan-"));
+        // 开启定时刷新任务
+        if(loop && watch && startWatcher(scanTask)) {
+            // 监听负责新文件，低频全量扫描兜底
+            scheduledExec.scheduleWithFixedDelay(scanTask, 0, reconcileInterval, TimeUnit.SECONDS);
+        } else if(loop) {
+            scheduledExec.scheduleWithFixedDelay(scanTask, 0, refreshInterval, TimeUnit.SECONDS);
+        } else {
+            scheduledExec.execute(scanOnceTask);
             scheduledExec.shutdown();
         }
 
-        int threadId=0;
+        if(resume) openJournal();
+        if(checksum) openManifests();
+        if(packThreshold>0) {
+            openPacks();
+            // 循环扫描不会结束，一段时间没有新文件的打包文件先结束，写出索引
+            if(loop) scheduledExec.scheduleWithFixedDelay(() -> {
+                for(PackWriter pack:packs.values()) pack.finishIdle(PackWriter.IDLE_SECONDS);
+            }, 5, 5, TimeUnit.SECONDS);
+        }
+        if(journal!=null) resumeState.startCompactor(journal,60*1000); // 每分钟检查一次是否需要压缩
+        if(loop && durabilityLevel==Durability.Level.END) {
+            Log.warn("--loop true 时复制不会结束，--durability end 改为 batch");
+            durabilityLevel=Durability.Level.BATCH;
+        }
+        durability=new Durability(durabilityLevel,durabilityFiles,durabilityMillis,lines -> {
+            if(journal!=null) journal.appendAll(lines);
+        });
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            for(PackWriter pack:packs.values()) pack.close(); // 没写完的打包文件写入结束标记和索引
+            durability.close(); // 已落盘的文件写入完成记录后再关闭 finishedFiles.txt
+            if(journal!=null) journal.close();
+            for(ChecksumManifest manifest:manifests.values()) manifest.close();
+        }));
+
+        scheduler=new DstScheduler(new ArrayList<>(dstDirStack),dstThreads,dstCaps,adaptive,weights,placement,
+                new VolumeRegistry(spaceSyncMillis,VolumeRegistry.DEFAULT_LOW_WATER));
+        dstDirStack.clear();
+        metrics.bind(taskFileList,scheduler);
+        metrics.start(statsInterval>0?statsInterval*1000L:10*1000L,statsInterval>0); // 不打印时也按 10s 采样，供 JMX 读取速率
+        int workers=scheduler.slots(); // 复制线程数等于所有目的目录可同时写入的文件数之和
+        if(workers>executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(workers);
+            executor.setCorePoolSize(workers);
+        }
+        int smallLane=largeFileSize<=0?0:Math.min(smallWorkers>0?smallWorkers:Math.max(1,workers/2),workers-1); // 至少留一个线程复制大文件
         try{
-            while (!dstDirStack.isEmpty()) {
-                int finalThreadId = threadId;
-                System.out.println(threadId++);
-                String dstDir=dstDirStack.poll();
-                executor.execute(new Runnable() {
-                    @Override
-                    public void run() {
-                        copyWorker(finalThreadId,dstDir);
-                    }
-                });
+            copyAll(workers,smallLane);
+            // 一次性复制：释放出空间后，暂缓和失败的文件在返回前再复制一轮，直到没有文件放得下或上一轮没有复制成功任何文件
+            long retriedAt=-1;
+            while(!loop && metrics.getFilesCopied()!=retriedAt) {
+                retriedAt=metrics.getFilesCopied();
+                if(!requeueReleased()) break;
+                copyAll(workers,smallLane);
             }
         } finally {
             executor.shutdown();
-            executor.awaitTermination(refreshInterval*2,TimeUnit.SECONDS);
+            executor.awaitTermination(Long.MAX_VALUE,TimeUnit.SECONDS); // 最后一个文件复制完成即结束
+            for(PackWriter pack:packs.values()) pack.close(); // 写入结束标记，校验值记入清单
+            durability.close(); // 还没落盘的文件落盘后写入完成记录
+            if(journal!=null) journal.close();
+            for(ChecksumManifest manifest:manifests.values()) manifest.close();
+            if(dedup!=null) dedup.shutdown();
+            metrics.stop();
+            printSummary(System.nanoTime()-startTime);
         }
 
     }
 
-    private void writeStringToFile(String filename,String str) {
-        FileWriter fw = null;
-        BufferedWriter bw = null;
-        PrintWriter pw = null;
+    private void printSummary(long elapsedNanos) {
+        double seconds=elapsedNanos/1e9;
+        Log.flush(); // 之后直接输出到 System.out
+        LatencyHistogram copyLatency=metrics.copyLatency(), wakeLatency=metrics.wakeLatency();
+        System.out.println("\n运行统计:");
+        System.out.printf(" 复制文件: %d 个, %.2fGB, 用时 %.1fs, 平均 %.1fMB/s\n", metrics.getFilesCopied(),
+                byteToGB(metrics.getBytesCopied()), seconds, metrics.getBytesCopied()/1024.0/1024/Math.max(seconds,0.001));
+        System.out.printf(" 单文件复制耗时: p50 %.2fms, p90 %.2fms, p99 %.2fms, 最大 %.2fms\n",
+                copyLatency.percentile(50)/1e6, copyLatency.percentile(90)/1e6, copyLatency.percentile(99)/1e6, copyLatency.max()/1e6);
+        System.out.printf(" 空闲到开始复制的延迟: 平均 %.2fms, p99 %.2fms, 最大 %.2fms, 共 %d 次\n",
+                wakeLatency.mean()/1e6, wakeLatency.percentile(99)/1e6, wakeLatency.max()/1e6, wakeLatency.count());
+        if(dedup!=null) System.out.printf(" 去重: %d 个文件建为硬链接, 节省 %.2fGB\n", dedup.linkedFiles(), byteToGB(dedup.linkedBytes()));
+        System.out.print(scheduler.describe());
+        if(!deferredTasks.isEmpty()) {
+            System.out.println(" 所有磁盘空间都不足，未复制的文件: "+deferredTasks.size()+" 个");
+            for(CopyTask task:deferredTasks) System.out.println("  "+task);
+        }
+        if(!failedTasks.isEmpty()) {
+            System.out.println(" 复制失败 3 次，未复制的文件: "+failedTasks.size()+" 个");
+            for(CopyTask task:failedTasks) System.out.println("  "+task);
+        }
+    }
+
+    private boolean startWatcher(Runnable scanTask) {
         try {
-            fw = new FileWriter(filename, true);
-            bw = new BufferedWriter(fw);
-            pw = new PrintWriter(bw);
-
-            pw.println(str);
-            pw.flush();
-        }catch (Exception e) {
-            e.printStackTrace();
-            System.out.println("\nerror: 写入已完成的文件到 "+filename+" 失败!");
-        } finally {
+            SrcWatcher watcher = new SrcWatcher(Paths.get(srcDirPath), recursive, settleMillis,
+                    this::addIfAbsent,
+                    () -> scheduledExec.execute(scanTask)); // 事件溢出，立即全量对账
+            Thread watchThread = new Thread(watcher, "src-watcher");
+            watchThread.setDaemon(true);
+            watchThread.start();
+            return true;
+        } catch (IOException e) {
+            Log.warn("error: 无法监听源目录，改为定时扫描: "+e);
+            return false;
+        }
+    }
+
+    private void openJournal() {
+        try {
+            journal = new FinishedJournal(Paths.get(finishedLogPath), fsync, fsyncMillis);
+        } catch (IOException e) {
+            Log.error("error: 打开 "+finishedLogPath+" 失败!", e);
+        }
+    }
+
+    private void openManifests() {
+        for(String dir:dstDirStack) {
             try {
-                pw.close();
-                bw.close();
-                fw.close();
-            } catch (IOException io) {// can't do anything }
+                manifests.put(dir,new ChecksumManifest(Paths.get(dir),fsync,fsyncMillis));
+            } catch (IOException e) {
+                Log.error("error: 打开 "+dir+" 中的校验清单失败!", e);
             }
         }
     }
 
-    private void copyWorker(int id, String dstDir) {
-        short loopTime=0;
+    private void openPacks() {
+        for(String dir:dstDirStack) packs.put(dir,new PackWriter(Paths.get(dir),packSize,checksum?manifests.get(dir):null));
+    }
+
+    // 按落盘策略落盘后记录已完成的文件，不记录时 taskFile 为 null；packed 为 true 时 file 是打包文件
+    private void logFinished(File file, String taskFile, boolean packed) throws InterruptedException {
+        try {
+            if(packed) durability.appended(file,resume?taskFile:null);
+            else durability.completed(file,resume?taskFile:null);
+        } catch (IOException e) {
+            Log.error("error: 写入已完成的文件到 "+finishedLogPath+" 失败!", e);
+        }
+    }
+
+    // 启动复制线程，等队列中的文件都复制完（扫描结束之后）
+    private void copyAll(int workers, int smallLane) throws InterruptedException {
+        if(virtual) {
+            dispatchVirtual(workers,smallLane);
+            return;
+        }
+        CountDownLatch done=new CountDownLatch(workers);
+        for(int threadId=0;threadId<workers;threadId++) {
+            int finalThreadId = threadId;
+            TaskQueue.Lane lane = threadId<smallLane?TaskQueue.Lane.SMALL:TaskQueue.Lane.LARGE;
+            Log.info("复制线程 "+threadId+" "+lane);
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        copyWorker(finalThreadId,lane);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+        done.await();
+    }
+
+    private void copyWorker(int id, TaskQueue.Lane lane) {
         while(true) { // 无限循环，等待任务
             try {
-                String taskFile;
-                if ((taskFile = taskFileList.poll()) != null) {
-                    File srcFile = new File(taskFile);
-                    File dstFile = new File(dstDir,srcFile.getName());
-                    File mountp=mountPoint(dstDir);
-//                    System.out.println(mountp+" 空闲空间(GB)："+DirCopy.byteToGB(mountp.getUsableSpace()));
-                    if(mountp.getUsableSpace()<srcFile.length()) {
-                        System.out.println("空闲空间: "+mountp.getUsableSpace()
-                                +"目的文件："+dstFile+" 源文件大小："+srcFile.length());
-                        System.out.println("磁盘"+dstDir+"空间不足，线程"+id+"退出！");
-                        break;
-                    }
-                    System.out.println("id="+id + " " + dstFile);
-                    copyByBufferedInOutStream(srcFile,dstFile);
-                    if(resume) writeStringToFile(finishedLogPath,taskFile);
-                } else {
-                    ++loopTime;
-                    System.out.println(dstDir+" id="+id+"无任务，休眠");
-                    TimeUnit.SECONDS.sleep(refreshInterval+1);
-                    System.out.println("lootTime:"+loopTime);
-                    if(!loop && loopTime>1 && taskFileList.isEmpty()) return;
+                CopyTask task=taskFileList.poll(lane);
+                boolean wasIdle = task==null;
+                if(wasIdle) {
+                    if(Log.fileEnabled()) Log.file("id="+id+"无任务，等待");
+                    task=taskFileList.take(lane); // 有任务入队立即唤醒
+                    if(task==null) return; // 扫描已结束且没有剩余任务
+                }
+                if(wasIdle) {
+                    metrics.woke(System.nanoTime()-task.queuedAt);
                 }
+                copyTask(id,task);
+            } catch (InterruptedException e) {
+                return;
             } catch (Exception e) {
-                e.printStackTrace();
+                Log.error("error: 复制线程 id="+id+" 出错", e);
             }
 
         }
     }
 
-    public static File mountPoint(String p) throws IOException {
-        FileStore fs = Files.getFileStore(Path.of(p));
-        Path temp = Path.of(p).toAbsolutePath();
-        Path mountpoint = temp;
+    // 每条队列一个分派线程，每个文件一个虚拟线程；每条队列同时复制的文件数和固定线程时相同，每个目的目录的并发数仍由 scheduler 控制
+    private void dispatchVirtual(int workers, int smallLane) throws InterruptedException {
+        List<Thread> dispatchers=new ArrayList<>();
+        if(smallLane>0) dispatchers.add(VirtualThreads.newThread("dispatch-small",() -> dispatch(TaskQueue.Lane.SMALL,smallLane)));
+        dispatchers.add(VirtualThreads.newThread("dispatch-large",() -> dispatch(TaskQueue.Lane.LARGE,workers-smallLane)));
+        for(Thread dispatcher:dispatchers) dispatcher.start();
+        for(Thread dispatcher:dispatchers) dispatcher.join();
+    }
+
+    private void dispatch(TaskQueue.Lane lane, int permits) {
+        Log.info("复制队列 "+lane+" 同时复制 "+permits+" 个文件（虚拟线程）");
+        Semaphore running=new Semaphore(permits);
+        ThreadFactory factory=VirtualThreads.factory("copy-"+lane.name().toLowerCase()+"-");
+        int id=0;
+        try {
+            while(true) {
+                running.acquire();
+                CopyTask task=taskFileList.poll(lane);
+                if(task==null) {
+                    task=taskFileList.take(lane); // 有任务入队立即唤醒
+                    if(task==null) {
+                        // 扫描已结束且没有剩余任务；等这条队列正在复制的文件完成，失败重试的文件会重新入队
+                        running.release();
+                        running.acquire(permits);
+                        running.release(permits);
+                        task=taskFileList.poll(lane);
+                        if(task==null) break;
+                        running.acquire();
+                    } else {
+                        metrics.woke(System.nanoTime()-task.queuedAt);
+                    }
+                }
+                CopyTask finalTask=task;
+                int taskId=id++;
+                factory.newThread(() -> {
+                    try {
+                        copyTask(taskId,finalTask);
+                    } catch (InterruptedException e) {
+                        // 退出
+                    } catch (Exception e) {
+                        Log.error("error: 复制 "+finalTask.path+" 出错", e);
+                    } finally {
+                        running.release();
+                    }
+                }).start();
+            }
+        } catch (InterruptedException e) {
+            Log.error("error: 分派 "+lane+" 队列被中断", e);
+        }
+    }
 
-        while( (temp = temp.getParent()) != null && fs.equals(Files.getFileStore(temp)) ) {
-            mountpoint = temp;
+    private void copyTask(int id, CopyTask task) throws InterruptedException {
+        boolean done=false;
+        try {
+            copyFile(id,task);
+            done=true;
+        } finally {
+            if(!done && task.content!=null) {
+                for(CopyTask duplicate:task.content.failed()) taskFileList.requeue(duplicate); // 第一份复制出错，重复的文件各自复制
+            }
         }
-        return new File(mountpoint.toString());
     }
 
-    public static void copyByBufferedInOutStream(File scrFile,File destFile) throws IOException {
-        byte[] bytes=new byte[8*1024];
-        try (InputStream in = new BufferedInputStream(new FileInputStream(scrFile))) {
-            OutputStream out = new BufferedOutputStream(new FileOutputStream(destFile));
-            int count;
-            while ((count = in.read(bytes)) > 0) {
-                out.write(bytes,0,count);
+    private void copyFile(int id, CopyTask task) throws InterruptedException {
+        if(task.size<packThreshold) {
+            packTask(id,task);
+            return;
+        }
+        File srcFile = new File(task.path);
+        long size=task.size; // 扫描时已取得
+        String dstName=srcFile.getName()+copyEngine.extension(); // 压缩时追加 .gz
+        long reserve=copyEngine.maxOutput(size); // 压缩后的大小要写完才知道，按最大值预留
+        boolean resumableCopy=resumable!=null && size>resumable.interval();
+        DstScheduler.Destination stale=task.modified?previousDestination(dstName):null; // 修改前的副本
+        DstScheduler.Destination previous=stale;
+        if(previous==null && resumableCopy) previous=previousDestination(dstName+ResumableCopy.PART_SUFFIX); // 上次中断的复制在这里续传
+        long reclaim=previous==null?0:new File(previous.dir,dstName).length()+new File(previous.dir,dstName+ResumableCopy.PART_SUFFIX).length();
+        DstScheduler.Destination dst=scheduler.acquire(reserve,previous,reclaim); // 选择目的目录并预留空间
+        if(dst==null) {
+            Log.warn("所有磁盘空间都不足，暂缓复制："+srcFile+" 源文件大小："+size);
+            defer(task);
+            return;
+        }
+        File dstFile = new File(dst.dir,dstName);
+        File partFile = ResumableCopy.partFile(dstFile); // 写完后改名为 dstFile
+        boolean completed=false;
+        long copied=0, allocated=0;
+        long[] crc=checksum?new long[1]:null;
+        long copyStart=System.nanoTime(), copyNanos=0;
+        try {
+            if(Log.fileEnabled()) Log.file("id="+id + " " + dstFile);
+            if(preallocator!=null && preallocator.preallocate(partFile.toPath(),size)) {
+                allocated=size;
+                scheduler.allocated(dst,allocated); // 已从磁盘上扣除，不再算作预留
+            }
+            copied=resumableCopy?resumable.copy(srcFile,partFile,task.size,task.mtime,crc):copyEngine.copy(srcFile,partFile,crc);
+            if(copied<allocated) Preallocator.trim(partFile.toPath(),copied); // 源文件变短了
+            if(verify) {
+                long readBack=Crc32c.of(partFile.toPath()); // 只读目的文件
+                if(readBack!=crc[0]) throw new IOException(String.format("校验失败 CRC32C %08x/%08x", readBack, crc[0]));
+            }
+            durability.beforeRename(partFile);
+            ResumableCopy.promote(partFile,dstFile); // 改名替换已有的文件，硬链接到它的其他文件不受影响
+            completed=true;
+        } catch (IOException e) {
+            Log.error("error: 复制 "+srcFile+" 到 "+dstFile+" 失败", e);
+            ResumableCopy.discard(partFile);
+            retry(task);
+        } finally {
+            copyNanos=System.nanoTime()-copyStart;
+            scheduler.release(dst,reserve,copied,allocated,completed,copyNanos);
+        }
+        if(completed) {
+            metrics.copied(dst,copied,copyNanos);
+            ChecksumManifest manifest=checksum?manifests.get(dst.dir):null;
+            if(manifest!=null) {
+                try {
+                    manifest.record(dstFile.getName(),copied,crc[0]);
+                } catch (IOException e) {
+                    Log.error("error: 写入 "+dst.dir+" 的校验清单失败!", e);
+                }
+            }
+            if(stale!=null && stale!=dst) removeStaleCopy(stale,dstName); // 原目录放不下，写到了别处
+            else if(previous!=null && previous!=dst) ResumableCopy.discard(new File(previous.dir,dstName+ResumableCopy.PART_SUFFIX)); // 只删除没能续传的 .part，同名文件可能是另一个源文件的副本
+            logFinished(dstFile,sync?ResumeState.syncKey(task.path,task.size,task.mtime):task.path,false);
+            if(task.content!=null) {
+                for(CopyTask duplicate:task.content.copied(dst.dir,dstFile,crc==null?0:crc[0])) linkDuplicate(duplicate,task.content);
+            }
+        }
+    }
+
+    // 小文件追加到目的目录的打包文件，不单独创建文件
+    private void packTask(int id, CopyTask task) throws InterruptedException {
+        long reserve=PackWriter.maxEntrySize(task.size);
+        DstScheduler.Destination dst=scheduler.acquire(reserve);
+        if(dst==null) {
+            Log.warn("所有磁盘空间都不足，暂缓复制："+task.path+" 源文件大小："+task.size);
+            defer(task);
+            return;
+        }
+        boolean completed=false;
+        long written=0, size=0;
+        File[] container=new File[1]; // 写入的打包文件
+        long copyStart=System.nanoTime(), copyNanos=0;
+        try {
+            byte[] data=Files.readAllBytes(Paths.get(task.path));
+            size=data.length;
+            if(Log.fileEnabled()) Log.file("id="+id+" pack "+task.path+" -> "+dst.dir);
+            PackWriter pack=packs.get(dst.dir);
+            written=pack.append(new File(task.path).getName(),data,task.mtime,container);
+            if(durability.level()==Durability.Level.FILE) pack.force(); // 打包文件不改名，file 级别在记录前落盘，同时追加的文件共用一次 fsync
+            completed=true;
+        } catch (IOException e) {
+            Log.error("error: 打包 "+task.path+" 到 "+dst.dir+" 失败", e);
+            retry(task);
+        } finally {
+            copyNanos=System.nanoTime()-copyStart;
+            scheduler.release(dst,reserve,written,completed,copyNanos);
+        }
+        if(completed) {
+            metrics.copied(dst,size,copyNanos);
+            logFinished(container[0],sync?ResumeState.syncKey(task.path,task.size,task.mtime):task.path,true);
+        }
+    }
+
+    // 失败的文件换一个磁盘重试，3 次后暂缓
+    private void retry(CopyTask task) {
+        if(++task.attempts<3) taskFileList.requeue(task); // 不等队列空位，见 TaskQueue.requeue
+        else {
+            Log.warn("复制失败3次，暂缓："+task.path);
+            failedTasks.add(task);
+            if(task.content!=null) {
+                for(CopyTask duplicate:task.content.failed()) taskFileList.requeue(duplicate); // 重复的文件各自复制
+            }
+        }
+    }
+
+    // 内容相同的文件在第一份旁边建硬链接，不支持硬链接时改为复制
+    private void linkDuplicate(CopyTask duplicate, Dedup.Content content) throws InterruptedException {
+        File copy=content.copy();
+        File link=new File(copy.getParentFile(),new File(duplicate.path).getName()+copyEngine.extension());
+        if(!link.equals(copy)) {
+            try {
+                Files.deleteIfExists(link.toPath());
+                Files.createLink(link.toPath(),copy.toPath());
+            } catch (IOException | UnsupportedOperationException e) {
+                Log.warn("无法建立硬链接，改为复制："+link+" "+e);
+                taskFileList.requeue(duplicate);
+                return;
+            }
+        }
+        dedup.linked(duplicate.size);
+        if(Log.fileEnabled()) Log.file("link: "+link+" -> "+copy);
+        ChecksumManifest manifest=checksum?manifests.get(content.dir()):null;
+        if(manifest!=null) {
+            try {
+                manifest.record(link.getName(),duplicate.size,content.crc());
+            } catch (IOException e) {
+                Log.error("error: 写入 "+content.dir()+" 的校验清单失败!", e);
+            }
+        }
+        logFinished(link,sync?ResumeState.syncKey(duplicate.path,duplicate.size,duplicate.mtime):duplicate.path,false);
+    }
+
+    // 暂缓复制，等待这份内容的重复文件改为各自复制
+    private void defer(CopyTask task) {
+        deferredTasks.add(task);
+        if(task.content!=null) deferredTasks.addAll(task.content.failed());
+    }
+
+    // 修改过的文件上次复制到的目的目录
+    private DstScheduler.Destination previousDestination(String name) {
+        for(DstScheduler.Destination d:scheduler.destinations()) {
+            if(new File(d.dir,name).exists()) return d;
+        }
+        return null;
+    }
+
+    private void removeStaleCopy(DstScheduler.Destination d, String name) throws InterruptedException {
+        ResumableCopy.discard(new File(d.dir,name+ResumableCopy.PART_SUFFIX));
+        if(!new File(d.dir,name).delete()) return;
+        ChecksumManifest manifest=checksum?manifests.get(d.dir):null;
+        try {
+            if(manifest!=null) manifest.remove(name);
+        } catch (IOException e) {
+            Log.error("error: 写入 "+d.dir+" 的校验清单失败!", e);
+        }
+    }
+
+    // 重新测量可用空间，暂缓和失败的文件中现在放得下的重新入队，返回是否有文件入队
+    private boolean requeueReleased() {
+        if(deferredTasks.isEmpty() && failedTasks.isEmpty()) return false;
+        scheduler.refresh();
+        boolean requeued=false;
+        for(ConcurrentLinkedQueue<CopyTask> queue:Arrays.asList(deferredTasks,failedTasks)) {
+            for(Iterator<CopyTask> it=queue.iterator();it.hasNext();) {
+                CopyTask task=it.next();
+                if(!scheduler.fits(task.size<packThreshold?PackWriter.maxEntrySize(task.size):copyEngine.maxOutput(task.size))) continue;
+                it.remove();
+                task.attempts=0;
+                taskFileList.requeue(task);
+                requeued=true;
             }
         }
+        return requeued;
+    }
+
+    private void retryDeferred() throws InterruptedException {
+        CopyTask task;
+        while((task=deferredTasks.poll())!=null || (task=failedTasks.poll())!=null) {
+            task.attempts=0;
+            taskFileList.put(task);
+        }
+    }
+
+    public void setCopyEngine(CopyEngine copyEngine) {
+        this.copyEngine = copyEngine;
+    }
+
+    public void setResumable(ResumableCopy resumable) {
+        this.resumable = resumable;
+    }
+
+    public void setPreallocator(Preallocator preallocator) {
+        this.preallocator = preallocator;
+    }
+
+    public void setVirtual(boolean virtual) {
+        this.virtual = virtual;
+    }
+
+    public void setDstThreads(int dstThreads) {
+        this.dstThreads = Math.max(1, dstThreads);
+    }
+
+    public void setStatsInterval(int statsInterval) {
+        this.statsInterval = Math.max(0, statsInterval);
+    }
+
+    public void setSpaceSync(long spaceSyncMillis) {
+        this.spaceSyncMillis = spaceSyncMillis;
+    }
+
+    public void setAdaptive(boolean adaptive, int[] dstCaps) {
+        this.adaptive = adaptive;
+        this.dstCaps = dstCaps;
+    }
+
+    public void setTaskOrder(TaskQueue.Order taskOrder, long largeFileSize, int smallWorkers) {
+        this.taskOrder = taskOrder;
+        this.largeFileSize = largeFileSize;
+        this.smallWorkers = smallWorkers;
+    }
+
+    public void setOrderWindow(int orderWindow) {
+        this.orderWindow = Math.max(1, orderWindow);
+    }
+
+    public void setPlacement(DstScheduler.Policy placement, long[] weights) {
+        this.placement = placement;
+        this.weights = weights;
+    }
+
+    public void setSync(boolean sync) {
+        this.sync = sync;
+    }
+
+    public void setDedup(int dedupThreads) {
+        this.dedupThreads = Math.max(0, dedupThreads);
+    }
+
+    public void setPack(long packThreshold, long packSize) {
+        this.packThreshold = Math.max(0, packThreshold);
+        this.packSize = packSize;
+    }
+
+    public void setChecksum(boolean checksum, boolean verify) {
+        this.checksum = checksum;
+        this.verify = verify;
+    }
+
+    public void setFsync(FinishedJournal.Fsync fsync, long fsyncMillis) {
+        this.fsync = fsync;
+        this.fsyncMillis = fsyncMillis;
+    }
+
+    public void setDurability(Durability.Level durabilityLevel, int durabilityFiles, long durabilityMillis) {
+        this.durabilityLevel = durabilityLevel;
+        this.durabilityFiles = durabilityFiles;
+        this.durabilityMillis = durabilityMillis;
+    }
+
+    public void setWatch(boolean watch, int reconcileInterval, long settleMillis) {
+        this.watch = watch;
+        this.reconcileInterval = Math.max(1, reconcileInterval);
+        this.settleMillis = settleMillis;
+    }
+
+    public static void copyByBufferedInOutStream(File scrFile,File destFile) throws IOException {
+        new CopyEngine.StreamEngine().copy(scrFile,destFile);
     }
 
     private void printDisksInfo(File[] roots) {
@@ -374,7 +1054,18 @@ public class DirCopy {
                 " 刷新间隔=" + refreshInterval +
                 "\n 源目录='" + srcDirPath +
                 "\n 写入目录='" + dstDirStack +
-                "\n 线程数=" + maxThreads+
+                "\n 线程数=" + (virtual?"每个文件一个虚拟线程":maxThreads)+
+                "\n 复制引擎=" + copyEngine.name()+
+                "\n 检查点=" + (resumable!=null?"每 "+resumable.interval()/1024/1024+"MB":"无")+
+                "\n 预分配=" + (preallocator!=null?"不小于 "+preallocator.minSize()/1024/1024+"MB 的文件":"无")+
+                "\n 每个磁盘线程数=" + dstThreads+ (adaptive?"（自动调整）":"")+
+                "\n 磁盘选择策略=" + placement+
+                "\n 任务排序=" + taskOrder+(taskOrder!=TaskQueue.Order.FIFO?"（每 "+orderWindow+" 个文件）":"")+
+                "\n 增量同步=" + sync+
+                "\n 打包=" + (packThreshold>0?"小于 "+packThreshold/1024+"KB 的文件, 每个 "+packSize/1024/1024+"MB":"无")+
+                "\n 去重=" + (dedupThreads>0?dedupThreads+" 个线程":"无")+
+                "\n 校验=" + (verify?"CRC32C+读回校验":checksum?"CRC32C":"无")+
+                "\n 落盘=" + durabilityLevel+(durabilityLevel==Durability.Level.BATCH?"（每 "+durabilityFiles+" 个文件或 "+durabilityMillis+"ms）":"")+
                 '}';
     }
 }
@@ -1,6 +1,4 @@
 import java.io.*;
-import java.nio.file.FileStore;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.HashSet;
@@ -34,8 +32,10 @@ public class DirCopy_win {
             = new ConcurrentLinkedQueue<>(); // 写入磁盘队列
 
     private final BlockingQueue<String> taskFileList=new LinkedBlockingQueue<>(1000);
-    private final ConcurrentHashMap<String, Boolean> allFileMap = new ConcurrentHashMap();
+    private final VolumeRegistry volumes = new VolumeRegistry();
+    private final PathIndex allFileMap = new PathIndex(); // 所有扫描到及已完成的文件
     private final ScheduledThreadPoolExecutor scheduledExec = new ScheduledThreadPoolExecutor(1); // 单线程更新
+    private CopyEngine copyEngine = CopyEngine.forName("channel"); // 复制引擎，默认零拷贝
 
     public DirCopy_win() {
 
@@ -85,7 +85,7 @@ public class DirCopy_win {
             File finishedLog = new File(finishedLogPath);
             Scanner logScanner = new Scanner(finishedLog);
             while (logScanner.hasNextLine()) {
-                allFileMap.put(logScanner.nextLine(),true);
+                allFileMap.add(logScanner.nextLine());
             }
         } catch (FileNotFoundException e) {
             ; // can't do anything
@@ -143,6 +143,9 @@ public class DirCopy_win {
         int refreshInterval=0, maxThreads=0;
         String srcDirPath = null, dstDir=null;
         boolean recursive=false, resume=true, tmploop=false;
+        String engine="channel";
+        String logLevel="info";
+        int logSample=1;
         LinkedList<String> dstDiskList=new LinkedList<>();
 
         for(int i=0;i<args.length;i+=2) {
@@ -171,6 +174,15 @@ public class DirCopy_win {
                 case "--loop":
                     tmploop = Boolean.parseBoolean(args[i + 1]);
                     break;
+                case "--engine":
+                    engine = args[i + 1];
+                    break;
+                case "--log":
+                    logLevel = args[i + 1];
+                    break;
+                case "--logSample":
+                    logSample = Integer.parseInt(args[i + 1]);
+                    break;
                 default:
                     DirCopy_win.help();
                     System.out.println("No such option: "+args[i]);
@@ -178,7 +190,9 @@ public class DirCopy_win {
             }
         }
 
+        Log.setLevel(Log.Level.valueOf(logLevel.toUpperCase()),logSample);
         DirCopy_win dirCopy=new DirCopy_win(refreshInterval,maxThreads,srcDirPath,dstDir, recursive,resume,tmploop,dstDiskList);
+        dirCopy.setCopyEngine(CopyEngine.forName(engine));
         System.out.println(dirCopy);
         dirCopy.startCopy();
 
@@ -193,6 +207,9 @@ public class DirCopy_win {
         System.out.println("--loop true/false  default:false, determain whether scan source dir in a loop with a fixed delay");
         System.out.println("--dstDisks D,E,F copy to disk D,E,F etc.");
         System.out.println("--dstDir  which directory the file copied to, can be more than one destiny directory but better not on the same disk");
+        System.out.println("--engine channel/stream  default:channel, zero-copy FileChannel transfer or the old buffered stream copy");
+        System.out.println("--log quiet/info/file  quiet: only errors and warnings, info: also progress, file: also one line per file, default:info");
+        System.out.println("--logSample  with --log file, print about 1 of every N per-file lines, default:1");
         System.out.println("eg: java DirCopy --interval 20 --threads 1 --src /G/Music --recursive true --resume true --dstDisks D,E,F --dstDir DirCopy");
     }
 
@@ -202,7 +219,7 @@ public class DirCopy_win {
             Scanner logScanner = new Scanner(finishedLog);
             while (logScanner.hasNextLine()) {
                 String fname=logScanner.nextLine().trim();
-                if(fname != "" && !allFileMap.containsKey(fname)) allFileMap.put(fname,true);
+                if(fname != "") allFileMap.add(fname);
             }
         } catch (FileNotFoundException e) {
             ; // can't do anything
@@ -210,7 +227,7 @@ public class DirCopy_win {
     }
 
     private void scanSrcDir() throws InterruptedException {
-        System.out.println("源目录:"+this.srcDirPath);
+        Log.info("源目录:"+this.srcDirPath);
         File srcDirFile = new File(srcDirPath);
         File[] allFiles=srcDirFile.listFiles();
 //        System.out.println("allFileMap size:"+allFileMap.size());
@@ -245,10 +262,10 @@ public class DirCopy_win {
 
     private void addIfAbsent(File file) throws InterruptedException {
         String fname=file.toString().trim();
-        if ((!allFileMap.containsKey(fname)) && (!fname.equals(finishedLogPath)) ) {
-            System.out.println("add: "+file);
+        if ((!allFileMap.contains(fname)) && (!fname.equals(finishedLogPath)) ) {
+            if(Log.fileEnabled()) Log.file("add: "+file);
             taskFileList.offer(fname,600,TimeUnit.SECONDS);
-            allFileMap.put(fname, true);
+            allFileMap.add(fname);
         }
     }
 
@@ -261,7 +278,7 @@ public class DirCopy_win {
                     try {
                         scanSrcDir();
                     } catch (InterruptedException e) {
-                        e.printStackTrace();
+                        Log.error("error: 扫描被中断", e);
                     }
                 }
             }, 0, refreshInterval, TimeUnit.SECONDS);
@@ -272,7 +289,7 @@ public class DirCopy_win {
                     try {
                         scanSrcDir();
                     } catch (InterruptedException e) {
-                        e.printStackTrace();
+                        Log.error("error: 扫描被中断", e);
                     }
                 }
             });
@@ -283,8 +300,8 @@ public class DirCopy_win {
         try{
             while (!dstDisksStack.isEmpty()) {
                 int finalThreadId = threadId;
-                System.out.println(threadId++);
                 String dstDisk=dstDisksStack.poll();
+                Log.info("复制线程 "+threadId+++" "+dstDisk);
                 executor.execute(new Runnable() {
                     @Override
                     public void run() {
@@ -311,8 +328,7 @@ public class DirCopy_win {
             pw.println(str);
             pw.flush();
         }catch (Exception e) {
-            e.printStackTrace();
-            System.out.println("\nerror: 写入已完成的文件到 "+filename+" 失败!");
+            Log.error("error: 写入已完成的文件到 "+filename+" 失败!", e);
         } finally {
             try {
                 pw.close();
@@ -332,51 +348,40 @@ public class DirCopy_win {
                     File srcFile = new File(taskFile);
                     Path dstPath=Paths.get(dstDisk,dstDir,srcFile.getName());
                     File dstFile = new File(dstPath.toString());
-                    File mountp=mountPoint(dstDisk);
-//                    System.out.println(mountp+" 空闲空间(GB)："+DirCopy.byteToGB(mountp.getUsableSpace()));
-                    if(mountp.getUsableSpace()<srcFile.length()) {
-                        System.out.println("空闲空间: "+mountp.getUsableSpace()
-                                +"目的文件："+dstFile+" 源文件大小："+srcFile.length());
-                        System.out.println("磁盘"+dstDisk+"空间不足，线程"+id+"退出！");
+                    VolumeRegistry.Volume volume=volumes.volumeOf(dstDisk); // 只在第一次解析挂载点
+                    long size=srcFile.length();
+                    long usable=volumes.usable(volume,size);
+                    if(usable<size) {
+                        Log.warn("空闲空间: "+usable
+                                +"目的文件："+dstFile+" 源文件大小："+size);
+                        Log.warn("磁盘"+dstDisk+"空间不足，线程"+id+"退出！");
                         break;
                     }
-                    System.out.println("id="+id + " " + dstFile);
-                    copyByBufferedInOutStream(srcFile,dstFile);
+                    if(Log.fileEnabled()) Log.file("id="+id + " " + dstFile);
+                    File partFile=ResumableCopy.partFile(dstFile); // 写完后改名，中途退出不会留下不完整的 dstFile
+                    volume.written(copyEngine.copy(srcFile,partFile));
+                    ResumableCopy.promote(partFile,dstFile);
                     if(resume) writeStringToFile(finishedLogPath,taskFile);
                 } else {
                     ++loopTime;
-                    System.out.println(dstDisk+" id="+id+"无任务，休眠");
+                    if(Log.fileEnabled()) Log.file(dstDisk+" id="+id+"无任务，休眠");
                     TimeUnit.SECONDS.sleep(refreshInterval+1);
-                    System.out.println("lootTime:"+loopTime);
+                    if(Log.fileEnabled()) Log.file("lootTime:"+loopTime);
                     if(!loop && loopTime>1 && taskFileList.isEmpty()) return;
                 }
             } catch (Exception e) {
-                e.printStackTrace();
+                Log.error("error: 复制线程 id="+id+" 出错", e);
             }
 
         }
     }
 
-    public static File mountPoint(String p) throws IOException {
-        FileStore fs = Files.getFileStore(Path.of(p));
-        Path temp = Path.of(p).toAbsolutePath();
-        Path mountpoint = temp;
-
-        while( (temp = temp.getParent()) != null && fs.equals(Files.getFileStore(temp)) ) {
-            mountpoint = temp;
-        }
-        return new File(mountpoint.toString());
+    public void setCopyEngine(CopyEngine copyEngine) {
+        this.copyEngine = copyEngine;
     }
 
     public static void copyByBufferedInOutStream(File scrFile,File destFile) throws IOException {
-        byte[] bytes=new byte[8*1024];
-        try (InputStream in = new BufferedInputStream(new FileInputStream(scrFile))) {
-            OutputStream out = new BufferedOutputStream(new FileOutputStream(destFile));
-            int count;
-            while ((count = in.read(bytes)) > 0) {
-                out.write(bytes,0,count);
-            }
-        }
+        new CopyEngine.StreamEngine().copy(scrFile,destFile);
     }
 
     private void printDisksInfo(File[] roots) {
@@ -400,6 +405,7 @@ public class DirCopy_win {
                 "\n 源目录='" + srcDirPath +
                 "\n 写入目录='" + dstDisksStack +
                 "\n 线程数=" + maxThreads+
+                "\n 复制引擎=" + copyEngine.name()+
                 "\n}";
     }
 }
@@ -1,5 +1,4 @@
 import java.io.*;
-import java.nio.file.FileStore;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -34,6 +33,7 @@ public class DirMove {
             = new ConcurrentLinkedQueue<>(); // 空闲磁盘队列
 
     private final ConcurrentLinkedQueue<String> taskFileList = new ConcurrentLinkedQueue<>();
+    private final VolumeRegistry volumes = new VolumeRegistry();
 //    private final ConcurrentLinkedQueue<String> finishedFileList = new ConcurrentLinkedQueue<>();
     private final ConcurrentSkipListSet<String> allFileSet = new ConcurrentSkipListSet<>();
     private final ScheduledThreadPoolExecutor scheduledExec = new ScheduledThreadPoolExecutor(1); // 单线程更新
@@ -139,6 +139,8 @@ public class DirMove {
         int refreshInterval=0, maxThreads=0;
         String srcDirPath = null, suffix=null;
         boolean recursive=false, resume=true, tmploop=false;
+        String logLevel="info";
+        int logSample=1;
         LinkedList<String> dstDirList=new LinkedList<>();
 
         for(int i=0;i<args.length;i+=2) {
@@ -167,6 +169,12 @@ public class DirMove {
                 case "--suffix":
                     suffix=args[i+1];
                     break;
+                case "--log":
+                    logLevel = args[i + 1];
+                    break;
+                case "--logSample":
+                    logSample = Integer.parseInt(args[i + 1]);
+                    break;
                 default:
                     DirMove.help();
                     System.out.println("No such option: "+args[i]);
@@ -174,6 +182,7 @@ public class DirMove {
             }
         }
 
+        Log.setLevel(Log.Level.valueOf(logLevel.toUpperCase()),logSample);
         DirMove dirMove=new DirMove(refreshInterval,maxThreads,srcDirPath,recursive,resume,tmploop,dstDirList,suffix);
         System.out.println(dirMove);
         dirMove.startMove();
@@ -189,12 +198,14 @@ public class DirMove {
         System.out.println("--loop true/false  default:false, determain whether scan source dir in a loop with a fixed delay");
         System.out.println("--dst  which directory the file copied to, can be more than one destiny directory but better not on the same disk");
         System.out.println("--sufix which kind of suffix's file to move , * represent all files");
+        System.out.println("--log quiet/info/file  quiet: only errors and warnings, info: also progress, file: also one line per file, default:info");
+        System.out.println("--logSample  with --log file, print about 1 of every N per-file lines, default:1");
         System.out.println("eg: java dirMove --interval 20 --threads 1 --src /G/Music --recursive true --resume true --dstDir /E/dirMove");
     }
 
 
     private void scanDir() {
-        System.out.println("源目录:"+this.srcDirPath);
+        Log.info("源目录:"+this.srcDirPath);
         File srcDirFile = new File(srcDirPath);
         File[] allFiles=srcDirFile.listFiles();
 //        System.out.println("allFileSet size:"+allFileSet.size());
@@ -203,7 +214,7 @@ public class DirMove {
             if(file.isFile() ){
                 if ((file.getName().contains(suffix) || suffix.equals("*"))
                         && !allFileSet.contains(file.toString()) && (!file.toString().equals(finishedLogPath)) ) {
-                    System.out.println("add:"+file);
+                    if(Log.fileEnabled()) Log.file("add:"+file);
                     allFileSet.add(file.toString());
                     taskFileList.add(file.toString());
 //                allFileSet.add(file.toString());
@@ -220,7 +231,7 @@ public class DirMove {
                 if (file.isFile()) {
                     if ((file.getName().contains(suffix) || suffix.equals("*"))
                             && (allFileSet.add(file.toString())) && (!file.toString().equals(finishedLogPath)) ) {
-                        System.out.println("add:" +file);
+                        if(Log.fileEnabled()) Log.file("add:" +file);
                         taskFileList.add(file.toString());
                     }
                 } else {
@@ -228,7 +239,7 @@ public class DirMove {
                     for(File afile:tmpFiles) {
                         if((afile.getName().contains(suffix) || suffix.equals("*")) && afile.isFile() && (allFileSet.add(afile.toString()))) {
                             taskFileList.add(afile.toString());
-                            System.out.println("add:"+afile);
+                            if(Log.fileEnabled()) Log.file("add:"+afile);
                         }
                         else dirSet.add(afile);
                     }
@@ -262,8 +273,8 @@ public class DirMove {
         try{
             while (!dstDirStack.isEmpty()) {
                 int finalThreadId = threadId;
-                System.out.println(threadId++);
                 String dstDir=dstDirStack.poll();
+                Log.info("移动线程 "+threadId+++" "+dstDir);
                 executor.execute(new Runnable() {
                     @Override
                     public void run() {
@@ -290,8 +301,7 @@ public class DirMove {
             pw.println(str);
             pw.flush();
         }catch (Exception e) {
-            e.printStackTrace();
-            System.out.println("\nerror: 写入已完成的文件到 "+filename+" 失败!");
+            Log.error("error: 写入已完成的文件到 "+filename+" 失败!", e);
         } finally {
             try {
                 pw.close();
@@ -310,42 +320,33 @@ public class DirMove {
                 if ((taskFile = taskFileList.poll()) != null) {
                     File srcFile = new File(taskFile);
                     File dstFile = new File(dstDir,srcFile.getName());
-                    File mountp=mountPoint(dstDir);
-//                    System.out.println(mountp+" 空闲空间(GB)："+dirMove.byteToGB(mountp.getUsableSpace()));
-                    if(mountp.getUsableSpace()<srcFile.length()) {
-                        System.out.println("空闲空间: "+mountp.getUsableSpace()
-                                +"目的文件："+dstFile+" 源文件大小："+srcFile.length());
-                        System.out.println("磁盘"+dstDir+"空间不足，线程"+id+"退出！");
+                    VolumeRegistry.Volume volume=volumes.volumeOf(dstDir); // 只在第一次解析挂载点
+                    long size=srcFile.length();
+                    long usable=volumes.usable(volume,size);
+                    if(usable<size) {
+                        Log.warn("空闲空间: "+usable
+                                +"目的文件："+dstFile+" 源文件大小："+size);
+                        Log.warn("磁盘"+dstDir+"空间不足，线程"+id+"退出！");
                         break;
                     }
-                    System.out.println("id="+id + " " + dstFile);
+                    if(Log.fileEnabled()) Log.file("id="+id + " " + dstFile);
                     Files.move(srcFile.toPath(), dstFile.toPath());
+                    volume.written(size);
                     if(resume) writeStringToFile(finishedLogPath,taskFile);
                 } else {
                     ++loopTime;
-                    System.out.println(dstDir+" id="+id+"无任务，休眠");
+                    if(Log.fileEnabled()) Log.file(dstDir+" id="+id+"无任务，休眠");
                     TimeUnit.SECONDS.sleep(refreshInterval+1);
-                    System.out.println("lootTime:"+loopTime);
+                    if(Log.fileEnabled()) Log.file("lootTime:"+loopTime);
                     if(!loop && loopTime>1 && taskFileList.isEmpty()) return;
                 }
             } catch (Exception e) {
-                e.printStackTrace();
+                Log.error("error: 移动线程 id="+id+" 出错", e);
             }
 
         }
     }
 
-    public static File mountPoint(String p) throws IOException {
-        FileStore fs = Files.getFileStore(Path.of(p));
-        Path temp = Path.of(p).toAbsolutePath();
-        Path mountpoint = temp;
-
-        while( (temp = temp.getParent()) != null && fs.equals(Files.getFileStore(temp)) ) {
-            mountpoint = temp;
-        }
-        return new File(mountpoint.toString());
-    }
-
     private void printDisksInfo(File[] roots) {
         System.out.println("所有磁盘信息如下：");
         for (File root : roots) {
@@ -0,0 +1,72 @@
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * 基于 fork/join 的并行目录扫描。
+ * 每个子目录是一个任务，空闲线程会窃取其他线程还没处理的子目录；
+ * 每个目录项只读取一次属性判断类型，不再对每个文件单独调用 isFile()；读不到属性的目录项跳过，不影响同目录的其他文件。
+ * 扫描到的文件立即交给 Visitor，复制线程不必等整棵树扫完。
+ */
+public class DirWalker extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    public interface Visitor {
+        void visitFile(Path file, BasicFileAttributes attrs) throws InterruptedException;
+    }
+
+    private final Path dir;
+    private final boolean recursive;
+    private final Visitor visitor;
+
+    private DirWalker(Path dir, boolean recursive, Visitor visitor) {
+        this.dir = dir;
+        this.recursive = recursive;
+        this.visitor = visitor;
+    }
+
+    public static void walk(ForkJoinPool pool, Path root, boolean recursive, Visitor visitor) {
+        pool.invoke(new DirWalker(root, recursive, visitor));
+    }
+
+    @Override
+    protected void compute() {
+        List<DirWalker> subTasks = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path entry : stream) {
+                BasicFileAttributes attrs;
+                try {
+                    attrs = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                } catch (IOException e) {
+                    Log.warn("error: 读取 " + entry + " 的属性失败，跳过: " + e); // 扫描时被删除或没有权限
+                    continue;
+                }
+                if (attrs.isSymbolicLink()) {
+                    // 链接指向的文件照常复制，链接目录不进入，避免循环
+                    try {
+                        attrs = Files.readAttributes(entry, BasicFileAttributes.class);
+                    } catch (IOException e) {
+                        continue; // 失效的链接
+                    }
+                    if (attrs.isRegularFile()) visitor.visitFile(entry, attrs);
+                } else if (attrs.isRegularFile()) {
+                    visitor.visitFile(entry, attrs);
+                } else if (attrs.isDirectory() && recursive) {
+                    DirWalker task = new DirWalker(entry, true, visitor);
+                    task.fork();
+                    subTasks.add(task);
+                }
+            }
+        } catch (IOException | DirectoryIteratorException e) {
+            Log.error("error: 扫描目录 " + dir + " 失败: " + e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (DirWalker task : subTasks) task.join();
+    }
+}
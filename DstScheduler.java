@@ -0,0 +1,341 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 目的磁盘调度：为每个文件选一个目的目录，并为它预留空间。
+ * 每个目的目录记录正在写入的文件数，可用空间和已预留的字节数记在所在的卷上（见 VolumeRegistry），
+ * 同一个卷上的多个目的目录共用空间。还能再写入一个文件的目的目录同时放在两个 TreeSet 里，一个按策略排序，一个按可用空间排序；
+ * acquire 取按策略排在最前的，它放不下这个文件时取可用空间最多的（most-free 时两者相同），两个都放不下说明没有目的目录放得下。
+ * 卷另按可用空间和上次测量的时间排序，判断是否还有地方放得下、找出该重新测量的卷都只看最前面的。
+ * 更新时只把这个卷上的目的目录移出再放回，选择和更新都是 O(log 磁盘数)：
+ * least-loaded: 正在写入的文件最少的优先，相同时可用空间多的优先
+ * most-free:    扣除预留后可用空间最多的优先
+ * round-robin:  按权重轮流（stride 调度，权重越大被选中越多）
+ * 按策略排在最前的目的目录放不下时，文件写到未满的目的目录中可用空间最多的一个，不再按策略往后找。
+ * 所有目的目录都在写入或空间暂时被预留占满时 acquire 等待；任何目的目录都放不下时返回 null，由调用方暂缓这个文件。
+ * 每个目的目录同时写入的文件数不超过 cap；adaptive 时并发数在 [1, cap] 内按实测吞吐和延迟做 AIMD 调整：
+ * 吞吐提升就加 1，吞吐下降超过 10% 就减半，吞吐持平而单字节延迟上升说明上次加的并发只是在排队，减 1；
+ * 持平时保持不变，每 10 个窗口重新试探一次。机械盘会稳定在 1，SSD 会逐步升到吞吐不再增长的并发数。
+ */
+public class DstScheduler {
+
+    public enum Policy { LEAST_LOADED, MOST_FREE, ROUND_ROBIN }
+
+    private static final long STRIDE = 1L << 20;
+    private static final long WINDOW_NANOS = 2_000_000_000L; // 每 2s 评估一次吞吐
+
+    public static class Destination {
+        final String dir;
+        final int id;
+        final int cap; // 同时写入的文件数上限
+        final boolean adaptive;
+        final long stride;
+        int limit; // 当前允许同时写入的文件数
+        final VolumeRegistry.Volume volume;
+        int active;
+        long pass;
+        long windowStart = System.nanoTime();
+        long windowBytes;
+        long windowNanos; // 窗口内各文件复制耗时之和
+        double lastTput; // 上个窗口的吞吐，字节/秒
+        double lastLatency; // 上个窗口每字节的复制耗时
+        int lastStep;
+        int holdWindows;
+        long totalBytes;
+        long totalNanos;
+
+        Destination(String dir, int id, int cap, boolean adaptive, long weight, VolumeRegistry.Volume volume) {
+            this.dir = dir;
+            this.id = id;
+            this.cap = Math.max(1, cap);
+            this.adaptive = adaptive;
+            this.limit = adaptive ? 1 : this.cap;
+            this.stride = STRIDE / Math.max(1, weight);
+            this.volume = volume;
+        }
+
+        void recordCompletion(long bytes, long nanos) {
+            totalBytes += bytes;
+            totalNanos += nanos;
+            if (!adaptive) return;
+            windowBytes += bytes;
+            windowNanos += nanos;
+            long now = System.nanoTime();
+            if (now - windowStart < WINDOW_NANOS || windowBytes == 0) return;
+            double tput = windowBytes * 1e9 / (now - windowStart);
+            double latency = (double) windowNanos / windowBytes;
+            int step = 0;
+            if (lastTput == 0 || (tput >= lastTput * 1.05 && lastStep >= 0)) {
+                step = 1; // 吞吐提升，继续增加
+            } else if (tput < lastTput * 0.9) {
+                limit = Math.max(1, limit / 2);
+                step = -1;
+            } else if (lastStep > 0 && latency > lastLatency * 1.2) {
+                limit = Math.max(1, limit - 1); // 吞吐持平、延迟上升，上次增加的并发只是在排队
+                step = -1;
+            } else if (++holdWindows >= 10) {
+                step = 1; // 定期重新试探
+            }
+            if (step == 1) limit = Math.min(cap, limit + 1);
+            if (step != 0) holdWindows = 0;
+            lastStep = step;
+            lastTput = tput;
+            lastLatency = latency;
+            windowStart = now;
+            windowBytes = 0;
+            windowNanos = 0;
+        }
+
+        long available() {
+            return volume.available();
+        }
+
+        @Override
+        public String toString() {
+            return dir;
+        }
+    }
+
+    private final TreeSet<Destination> ready; // 未达到并发上限的目的目录，按策略排序
+    private final TreeSet<Destination> readyByFree; // 同上，按扣除预留后的可用空间从多到少
+    private final TreeSet<VolumeRegistry.Volume> byUsable; // 所有卷，按不含预留的可用空间从多到少
+    private final TreeSet<VolumeRegistry.Volume> bySync; // 所有卷，按上次测量的时间从早到晚
+    private final List<Destination> all = new ArrayList<>();
+    private final Map<VolumeRegistry.Volume, List<Destination>> onVolume = new HashMap<>();
+    private final VolumeRegistry volumes;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+
+    /**
+     * caps 为各目的目录的并发上限，未给出的用 defaultCap
+     */
+    public DstScheduler(List<String> dirs, int defaultCap, int[] caps, boolean adaptive, long[] weights, Policy policy,
+                        VolumeRegistry volumes) {
+        this.volumes = volumes;
+        Comparator<Destination> byId = Comparator.comparingInt(d -> d.id);
+        Comparator<Destination> byFree = Comparator.comparingLong(Destination::available).reversed().thenComparing(byId);
+        switch (policy) {
+            case MOST_FREE:
+                ready = new TreeSet<>(byFree);
+                break;
+            case ROUND_ROBIN:
+                ready = new TreeSet<>(Comparator.<Destination>comparingLong(d -> d.pass).thenComparing(byId));
+                break;
+            default:
+                ready = new TreeSet<>(Comparator.<Destination>comparingInt(d -> d.active)
+                        .thenComparing(Comparator.comparingLong(Destination::available).reversed()).thenComparing(byId));
+        }
+        readyByFree = new TreeSet<>(byFree);
+        Comparator<VolumeRegistry.Volume> volumeId = Comparator.comparingInt(v -> v.id);
+        byUsable = new TreeSet<>(Comparator.comparingLong(VolumeRegistry.Volume::usable).reversed().thenComparing(volumeId));
+        bySync = new TreeSet<>(Comparator.comparingLong(VolumeRegistry.Volume::syncedAt).thenComparing(volumeId));
+        for (int i = 0; i < dirs.size(); i++) {
+            long weight = weights != null && i < weights.length ? weights[i] : 1;
+            int cap = caps != null && i < caps.length ? caps[i] : defaultCap;
+            VolumeRegistry.Volume volume = volumes.volumeOf(dirs.get(i));
+            Destination d = new Destination(dirs.get(i), i, cap, adaptive, weight, volume);
+            all.add(d);
+            onVolume.computeIfAbsent(volume, v -> new ArrayList<>()).add(d);
+        }
+        for (VolumeRegistry.Volume volume : onVolume.keySet()) attach(volume);
+    }
+
+    /**
+     * 选择目的目录并预留 size 字节；暂时没有可用的目的目录时等待，任何目的目录都放不下时返回 null
+     */
+    public Destination acquire(long size) throws InterruptedException {
+        lock.lock();
+        try {
+            while (true) {
+                syncExpired();
+                Destination d = pick(size);
+                if (d != null) {
+                    if (!volumes.needsSync(d.volume, size)) return take(d, size);
+                    sync(d.volume); // 快满了，按实际可用空间重新选
+                    d = pick(size);
+                    if (d != null) return take(d, size);
+                }
+                VolumeRegistry.Volume roomiest = byUsable.first();
+                if (roomiest.usable() < size && volumes.needsSync(roomiest, size)) {
+                    sync(roomiest); // 估计的空间不够，可能其他程序删除了文件
+                    d = pick(size);
+                    if (d != null) return take(d, size);
+                }
+                if (byUsable.first().usable() < size) return null; // 预留都释放后也放不下
+                changed.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 优先选择 preferred（增量同步时被修改的文件写回原来的目的目录，覆盖旧副本后收回 reclaim 字节），
+     * 等待它空闲；preferred 放不下时按策略另选
+     */
+    public Destination acquire(long size, Destination preferred, long reclaim) throws InterruptedException {
+        if (preferred == null) return acquire(size);
+        lock.lock();
+        try {
+            while (true) {
+                syncExpired();
+                if (volumes.needsSync(preferred.volume, Math.max(0, size - reclaim))) sync(preferred.volume);
+                if (preferred.volume.usable() + reclaim < size) break;
+                if (preferred.active < preferred.limit && preferred.available() + reclaim >= size) return take(preferred, size);
+                changed.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+        return acquire(size);
+    }
+
+    // 按策略排在最前的未满目的目录，它放不下时取未满的目的目录中可用空间最多的，都放不下时返回 null
+    private Destination pick(long size) {
+        if (ready.isEmpty()) return null;
+        if (ready.first().available() >= size) return ready.first();
+        return readyByFree.first().available() >= size ? readyByFree.first() : null;
+    }
+
+    private Destination take(Destination d, long size) {
+        detach(d.volume);
+        d.active++;
+        d.volume.reserve(size);
+        d.pass += d.stride;
+        attach(d.volume);
+        return d;
+    }
+
+    /**
+     * 重新测量所有卷的可用空间
+     */
+    public void refresh() {
+        lock.lock();
+        try {
+            for (VolumeRegistry.Volume volume : onVolume.keySet()) sync(volume);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 预留都释放后是否有目的目录放得下 size 字节（按估计的可用空间）
+     */
+    public boolean fits(long size) {
+        lock.lock();
+        try {
+            return byUsable.first().usable() >= size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 重新测量距上次测量超过 syncMillis 的卷，只看 bySync 最前面的
+    private void syncExpired() {
+        while (volumes.expired(bySync.first())) sync(bySync.first());
+    }
+
+    private void sync(VolumeRegistry.Volume volume) {
+        detach(volume);
+        volume.sync();
+        attach(volume);
+    }
+
+    /**
+     * 释放预留的 size 字节；completed 为 true 表示复制完成，实际写入了 written 字节
+     */
+    public void release(Destination d, long size, long written, boolean completed, long copyNanos) {
+        release(d, size, written, 0, completed, copyNanos);
+    }
+
+    /**
+     * 同上，其中 allocated 字节已经通过 allocated 计入已写入
+     */
+    public void release(Destination d, long size, long written, long allocated, boolean completed, long copyNanos) {
+        lock.lock();
+        try {
+            detach(d.volume);
+            d.active--;
+            d.volume.release(size - allocated, (completed ? written : 0) - allocated); // 失败时 .part 已删除，预分配的块已释放
+            if (completed) d.recordCompletion(written, copyNanos);
+            attach(d.volume);
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 预留的 bytes 字节已经在磁盘上分配（预分配），从预留转为已写入；之后重新测量可用空间时不会再扣除一次
+     */
+    public void allocated(Destination d, long bytes) {
+        lock.lock();
+        try {
+            detach(d.volume);
+            d.volume.release(bytes, bytes);
+            attach(d.volume);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 卷的空间变化会改变这个卷和卷上所有目的目录的排序，先移出再放回；达到并发上限的目的目录不放回
+    private void detach(VolumeRegistry.Volume volume) {
+        byUsable.remove(volume);
+        bySync.remove(volume);
+        for (Destination d : onVolume.get(volume)) {
+            ready.remove(d);
+            readyByFree.remove(d);
+        }
+    }
+
+    private void attach(VolumeRegistry.Volume volume) {
+        byUsable.add(volume);
+        bySync.add(volume);
+        for (Destination d : onVolume.get(volume)) {
+            if (d.active >= d.limit) continue;
+            ready.add(d);
+            readyByFree.add(d);
+        }
+    }
+
+    public List<Destination> destinations() {
+        return Collections.unmodifiableList(all);
+    }
+
+    public int slots() {
+        lock.lock();
+        try {
+            int slots = 0;
+            for (Destination d : all) slots += d.cap;
+            return slots;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 各目的目录的并发数和写入量
+     */
+    public String describe() {
+        lock.lock();
+        try {
+            StringBuilder sb = new StringBuilder();
+            for (Destination d : all) {
+                sb.append(String.format(" %s (%s) 并发 %d/%d, 写入 %.2fGB, 单文件平均 %.1fMB/s%n", d.dir, d.volume, d.limit, d.cap,
+                        d.totalBytes / 1024.0 / 1024 / 1024,
+                        d.totalNanos == 0 ? 0 : d.totalBytes * 1e9 / d.totalNanos / 1024 / 1024));
+            }
+            return sb.toString();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,207 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 目的文件的落盘策略，决定一个文件的完成记录什么时候写入 finishedFiles.txt：
+ * none:  不强制落盘，复制完立即记录（原来的行为）
+ * file:  每个文件改名前 fsync，改名后 fsync 所在目录，然后记录；小文件多时很慢
+ * batch: 复制线程不等待，攒够 batchFiles 个文件或最早的一个已等待 batchMillis 毫秒后，
+ *        由后台线程依次 fsync 这些文件和它们所在的目录，再一次写入这一批的完成记录
+ * end:   运行结束时 fsync 所有文件后再写入完成记录，中途崩溃时本次复制的文件全部重新复制；
+ *        待落盘的文件一直留在内存里，只用于一次性复制，--loop true 时改为 batch
+ * 无论哪个级别，完成记录都不会早于文件内容落盘；batch 和 end 下崩溃后可能留下已改名但内容不完整的文件，
+ * 它们没有完成记录，下次会重新复制。
+ */
+public class Durability implements Closeable {
+
+    public enum Level { NONE, FILE, BATCH, END }
+
+    /**
+     * 写入完成记录
+     */
+    public interface Sink {
+        void append(List<String> lines) throws IOException, InterruptedException;
+    }
+
+    private static class Pending {
+        final File file;
+        final String line;
+        final long at = System.nanoTime();
+
+        Pending(File file, String line) {
+            this.file = file;
+            this.line = line;
+        }
+    }
+
+    private final Level level;
+    private final int batchFiles;
+    private final long batchNanos;
+    private final Sink sink;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private List<Pending> pending = new ArrayList<>();
+    private boolean closed;
+    private Thread syncer;
+
+    public Durability(Level level, int batchFiles, long batchMillis, Sink sink) {
+        this.level = level;
+        this.batchFiles = Math.max(1, batchFiles);
+        this.batchNanos = TimeUnit.MILLISECONDS.toNanos(batchMillis);
+        this.sink = sink;
+        if (level == Level.BATCH) {
+            syncer = VirtualThreads.newThread("durability-sync", this::syncLoop);
+            syncer.start();
+        }
+    }
+
+    public Level level() {
+        return level;
+    }
+
+    /**
+     * 文件写完、改名之前调用，file 级别在这里 fsync
+     */
+    public void beforeRename(File part) throws IOException {
+        if (level == Level.FILE) force(part.toPath());
+    }
+
+    /**
+     * 文件已写完并改名，line 为它的完成记录（不记录时为 null），按级别落盘后写入
+     */
+    public void completed(File file, String line) throws IOException, InterruptedException {
+        switch (level) {
+            case NONE:
+                if (line != null) sink.append(Collections.singletonList(line));
+                break;
+            case FILE:
+                forceDirectory(file.toPath().toAbsolutePath().getParent());
+                if (line != null) sink.append(Collections.singletonList(line));
+                break;
+            default:
+                lock.lock();
+                try {
+                    // 落盘跟不上复制时让复制线程等一等，待落盘的文件不会无限增加
+                    while (level == Level.BATCH && pending.size() >= 4 * batchFiles && !closed) changed.await();
+                    if (!closed) {
+                        pending.add(new Pending(file, line));
+                        if (pending.size() >= batchFiles) changed.signalAll();
+                        return;
+                    }
+                } finally {
+                    lock.unlock();
+                }
+                sync(Collections.singletonList(new Pending(file, line))); // 已经关闭（关闭钩子在复制中途运行），直接落盘
+        }
+    }
+
+    /**
+     * 打包文件中追加的一个文件已写完；file 级别时调用者已用 PackWriter.force 落盘，打包文件的目录项在创建时已落盘，
+     * 直接写入完成记录，不再每个文件 fsync 一次目录
+     */
+    public void appended(File container, String line) throws IOException, InterruptedException {
+        if (level != Level.FILE) completed(container, line);
+        else if (line != null) sink.append(Collections.singletonList(line));
+    }
+
+    private void syncLoop() {
+        try {
+            while (true) {
+                List<Pending> batch;
+                lock.lock();
+                try {
+                    while (!closed && (pending.isEmpty()
+                            || pending.size() < batchFiles && System.nanoTime() - pending.get(0).at < batchNanos)) {
+                        if (pending.isEmpty()) changed.await();
+                        else changed.awaitNanos(batchNanos - (System.nanoTime() - pending.get(0).at));
+                    }
+                    if (closed && pending.isEmpty()) return;
+                    batch = pending;
+                    pending = new ArrayList<>();
+                    changed.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+                sync(batch);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // fsync 这一批的文件和目录，之后写入完成记录；落盘失败的文件不记录，下次重新复制
+    private void sync(List<Pending> batch) throws InterruptedException {
+        Set<Path> dirs = new LinkedHashSet<>();
+        Set<Path> forced = new LinkedHashSet<>(); // 打包文件可能在一批中出现多次
+        List<String> lines = new ArrayList<>(batch.size());
+        for (Pending p : batch) {
+            Path path = p.file.toPath();
+            try {
+                if (forced.add(path)) force(path);
+                dirs.add(path.toAbsolutePath().getParent());
+                if (p.line != null) lines.add(p.line);
+            } catch (IOException e) {
+                Log.error("error: " + p.file + " 落盘失败，不写入完成记录: " + e);
+            }
+        }
+        for (Path dir : dirs) forceDirectory(dir);
+        try {
+            sink.append(lines);
+        } catch (IOException e) {
+            Log.error("error: 写入完成记录失败", e);
+        }
+    }
+
+    /**
+     * 落盘所有还没有落盘的文件后返回；运行结束和关闭钩子都会调用，可以重复调用
+     */
+    @Override
+    public void close() {
+        if (level == Level.NONE || level == Level.FILE) return;
+        List<Pending> rest = Collections.emptyList();
+        lock.lock();
+        try {
+            closed = true;
+            changed.signalAll();
+            if (syncer == null) { // end 级别，取走后再次调用不会重复记录
+                rest = pending;
+                pending = new ArrayList<>();
+            }
+        } finally {
+            lock.unlock();
+        }
+        try {
+            if (syncer != null) syncer.join();
+            else if (!rest.isEmpty()) sync(rest);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    static void force(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    // fsync 目录，改名和新建的目录项才算落盘；Windows 不能打开目录，跳过
+    static void forceDirectory(Path dir) {
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // can't do anything
+        }
+    }
+}
@@ -0,0 +1,230 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * finishedFiles.txt 的组提交日志。
+ * 文件只打开一次，所有复制线程的完成记录由一个写线程攒成一批一次写入；
+ * append 在本条记录写入文件（按 fsync 策略落盘）之后才返回，返回即代表下次 --resume 会跳过它。
+ * fsync 策略：
+ * none:     只写入系统缓存，进程崩溃不丢，断电可能丢
+ * batch:    每批写入后 force，断电也不丢
+ * interval: 每 fsyncMillis 毫秒 force 一次，断电最多丢这段时间内的记录
+ * checkpoint 由写线程在两批之间执行，用于把日志压缩进快照后清空日志，期间不会有新的记录写入。
+ */
+public class FinishedJournal implements Closeable {
+
+    public enum Fsync { NONE, BATCH, INTERVAL }
+
+    public interface Checkpoint {
+        /**
+         * logLength 之前的记录都已写入并落盘，返回后日志被清空
+         */
+        void run(long logLength) throws IOException;
+    }
+
+    private static final int MAX_BATCH = 4096;
+    private final FileChannel channel;
+    private final Fsync fsync;
+    private final long fsyncMillis;
+    private final Charset charset = Charset.defaultCharset(); // 与读取时的 Scanner 保持一致
+    private final LinkedBlockingQueue<String> queue = new LinkedBlockingQueue<>();
+    private final LinkedBlockingQueue<CheckpointRequest> checkpoints = new LinkedBlockingQueue<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition committedCond = lock.newCondition();
+    private final Thread writer;
+    private long appendedSeq = 0;  // 已入队的记录数
+    private long committedSeq = 0; // 已写入的记录数
+    private IOException failure;
+    private volatile boolean closed = false;
+
+    public FinishedJournal(Path path, Fsync fsync, long fsyncMillis) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        this.fsync = fsync;
+        this.fsyncMillis = fsyncMillis;
+        this.writer = VirtualThreads.newThread("finished-journal", this::writeLoop);
+        this.writer.start();
+    }
+
+    /**
+     * 记录一个已完成的文件，写入后返回
+     */
+    public void append(String line) throws IOException, InterruptedException {
+        long seq;
+        lock.lock();
+        try {
+            if (closed) throw new IOException("journal 已关闭");
+            seq = ++appendedSeq;
+            queue.add(line);
+            while (committedSeq < seq && failure == null) committedCond.await();
+            if (committedSeq < seq) throw failure;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 一次记录多个已完成的文件，和其他线程的记录一起组提交，全部写入后返回
+     */
+    public void appendAll(List<String> lines) throws IOException, InterruptedException {
+        if (lines.isEmpty()) return;
+        long seq;
+        lock.lock();
+        try {
+            if (closed) throw new IOException("journal 已关闭");
+            appendedSeq += lines.size();
+            seq = appendedSeq;
+            queue.addAll(lines);
+            while (committedSeq < seq && failure == null) committedCond.await();
+            if (committedSeq < seq) throw failure;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void writeLoop() {
+        List<String> batch = new ArrayList<>();
+        long lastForce = System.currentTimeMillis();
+        boolean dirty = false;
+        try {
+            while (!(closed && queue.isEmpty())) {
+                String first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, MAX_BATCH - 1);
+                    write(batch);
+                    dirty = true;
+                    if (fsync == Fsync.BATCH) {
+                        channel.force(false);
+                        dirty = false;
+                        lastForce = System.currentTimeMillis();
+                    }
+                    commit(batch.size());
+                    batch.clear();
+                }
+                if (dirty && fsync == Fsync.INTERVAL && System.currentTimeMillis() - lastForce >= fsyncMillis) {
+                    channel.force(false);
+                    dirty = false;
+                    lastForce = System.currentTimeMillis();
+                }
+                CheckpointRequest request = checkpoints.poll();
+                if (request != null) runCheckpoint(request);
+            }
+            if (dirty && fsync != Fsync.NONE) channel.force(false);
+        } catch (IOException e) {
+            fail(e);
+        } catch (InterruptedException e) {
+            fail(new IOException("journal 写线程被中断", e));
+        } finally {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // can't do anything
+            }
+        }
+    }
+
+    private void runCheckpoint(CheckpointRequest request) throws IOException {
+        channel.force(false);
+        try {
+            request.checkpoint.run(channel.size());
+        } catch (IOException e) {
+            request.done.completeExceptionally(e); // 快照失败时日志保持原样
+            return;
+        }
+        channel.truncate(0);
+        channel.force(true);
+        request.done.complete(null);
+    }
+
+    /**
+     * 在写线程上执行 checkpoint，完成后日志被清空
+     */
+    public void checkpoint(Checkpoint checkpoint) throws IOException, InterruptedException {
+        CheckpointRequest request = new CheckpointRequest(checkpoint);
+        if (closed) throw new IOException("journal 已关闭");
+        checkpoints.add(request);
+        while (true) {
+            try {
+                request.done.get(1, TimeUnit.SECONDS);
+                return;
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+                throw new IOException(e.getCause());
+            } catch (TimeoutException e) {
+                if (!writer.isAlive() && !request.done.isDone()) throw new IOException("journal 已关闭");
+            }
+        }
+    }
+
+    private void write(List<String> batch) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (String line : batch) sb.append(line).append(System.lineSeparator());
+        ByteBuffer buffer = charset.encode(sb.toString());
+        while (buffer.hasRemaining()) channel.write(buffer);
+    }
+
+    private void commit(int count) {
+        lock.lock();
+        try {
+            committedSeq += count;
+            committedCond.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void fail(IOException e) {
+        lock.lock();
+        try {
+            failure = e;
+            closed = true;
+            committedCond.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        CheckpointRequest request;
+        while ((request = checkpoints.poll()) != null) request.done.completeExceptionally(e);
+    }
+
+    private static class CheckpointRequest {
+        final Checkpoint checkpoint;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        CheckpointRequest(Checkpoint checkpoint) {
+            this.checkpoint = checkpoint;
+        }
+    }
+
+    /**
+     * 写完队列中剩余的记录后关闭
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+        } finally {
+            lock.unlock();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * HDR 风格的对数-线性直方图，记录纳秒级耗时。
+ * 每个 2 的幂区间再等分成 16 个子桶，相对误差不超过 1/16；共 960 个桶覆盖 0 ~ Long.MAX_VALUE。
+ * 每个桶是一个 LongAdder，多个复制线程同时记录时不会争用同一个缓存行，记录只需一次加法，不加锁。
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+    private final LongAdder[] counts = new LongAdder[BUCKETS];
+    private final LongAdder total = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Long::max, 0);
+
+    public LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++) counts[i] = new LongAdder();
+    }
+
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        counts[bucket(nanos)].increment();
+        total.increment();
+        sum.add(nanos);
+        max.accumulate(nanos);
+    }
+
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        int exp = 63 - Long.numberOfLeadingZeros(value); // >= SUB_BITS
+        int sub = (int) (value >>> (exp - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exp - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    // 桶内取中间值
+    static long valueOf(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+        int exp = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        long width = 1L << (exp - SUB_BITS);
+        long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exp - SUB_BITS);
+        return lower + width / 2;
+    }
+
+    public long count() {
+        return total.sum();
+    }
+
+    public long max() {
+        return max.get();
+    }
+
+    public double mean() {
+        long n = total.sum();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    /**
+     * 第 percentile 百分位（0~100）的耗时，没有记录时返回 0
+     */
+    public long percentile(double percentile) {
+        long[] snapshot = new long[BUCKETS];
+        long n = 0;
+        for (int i = 0; i < BUCKETS; i++) n += snapshot[i] = counts[i].sum();
+        if (n == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(n * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) return Math.min(valueOf(i), max.get());
+        }
+        return max.get();
+    }
+}
@@ -0,0 +1,150 @@
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 异步日志，代替复制和扫描线程里的 System.out.println。
+ * 日志先放进一个有界环形缓冲区（多个线程写入，CAS 争用序号），由一个后台线程成批写到标准输出，
+ * 调用线程不会被 System.out 的锁和控制台 I/O 阻塞。
+ * 级别：
+ * quiet: 只输出错误和警告
+ * info:  再加上运行过程信息和统计（默认）
+ * file:  再加上每个文件的事件（发现、复制），可按 sample 抽样，每 sample 条输出约 1 条
+ * 缓冲区满时丢弃每个文件的事件并计数，错误、警告和运行信息等待缓冲区有空位。
+ */
+public final class Log {
+
+    public enum Level { QUIET, INFO, FILE }
+
+    private static final int CAPACITY = 1 << 14; // 必须是2的幂
+    private static final AtomicReferenceArray<String> ring = new AtomicReferenceArray<>(CAPACITY);
+    private static final AtomicLong tail = new AtomicLong(); // 下一个写入的序号
+    private static volatile long head; // 下一个输出的序号，只有输出线程修改
+    private static volatile boolean sleeping; // 输出线程没有日志可写，已经或即将 park
+    private static final LongAdder dropped = new LongAdder();
+    private static volatile Level level = Level.INFO;
+    private static volatile int sample = 1;
+    private static final Thread drainer;
+
+    static {
+        drainer = new Thread(Log::drainLoop, "log-drain");
+        drainer.setDaemon(true);
+        drainer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::flush));
+    }
+
+    private Log() {
+    }
+
+    public static void setLevel(Level level, int sample) {
+        Log.level = level;
+        Log.sample = Math.max(1, sample);
+    }
+
+    public static void error(String msg) {
+        put(msg, true);
+    }
+
+    public static void error(String msg, Throwable e) {
+        StringWriter sw = new StringWriter();
+        e.printStackTrace(new PrintWriter(sw));
+        put(msg + System.lineSeparator() + sw.toString().trim(), true);
+    }
+
+    public static void warn(String msg) {
+        put(msg, true);
+    }
+
+    public static void info(String msg) {
+        if (level != Level.QUIET) put(msg, true);
+    }
+
+    /**
+     * 这次的文件事件是否需要输出，用于在拼接日志字符串之前判断
+     */
+    public static boolean fileEnabled() {
+        if (level != Level.FILE) return false;
+        int s = sample;
+        return s == 1 || ThreadLocalRandom.current().nextInt(s) == 0;
+    }
+
+    /**
+     * 每个文件的事件，先用 fileEnabled 判断；缓冲区满时丢弃
+     */
+    public static void file(String msg) {
+        put(msg, false);
+    }
+
+    private static void put(String msg, boolean wait) {
+        while (true) {
+            long t = tail.get();
+            if (t - head >= CAPACITY) {
+                if (!wait) {
+                    dropped.increment();
+                    return;
+                }
+                LockSupport.unpark(drainer);
+                Thread.yield();
+                continue;
+            }
+            if (tail.compareAndSet(t, t + 1)) {
+                ring.set((int) t & (CAPACITY - 1), msg);
+                if (sleeping) LockSupport.unpark(drainer);
+                return;
+            }
+        }
+    }
+
+    private static void drainLoop() {
+        StringBuilder sb = new StringBuilder();
+        while (true) {
+            if (drain(sb)) continue;
+            sleeping = true;
+            // 先标记再检查，写入者要么看到标记去 unpark，要么它的日志在这里被看到
+            if (tail.get() == head) LockSupport.park();
+            else LockSupport.parkNanos(100_000); // 序号已占用但还没写入，稍后再取
+            sleeping = false;
+        }
+    }
+
+    // 输出缓冲区中已写入的日志，有输出返回 true
+    private static synchronized boolean drain(StringBuilder sb) {
+        long h = head;
+        long t = tail.get();
+        while (h < t) {
+            int i = (int) h & (CAPACITY - 1);
+            String msg = ring.get(i);
+            if (msg == null) break; // 序号已占用但还没写入，下次再取
+            ring.set(i, null);
+            sb.append(msg).append(System.lineSeparator());
+            h++;
+            if (sb.length() > 64 * 1024) {
+                head = h;
+                write(sb);
+            }
+        }
+        head = h;
+        long lost = dropped.sumThenReset();
+        if (lost > 0) sb.append("(日志缓冲区已满，丢弃 ").append(lost).append(" 条文件事件)").append(System.lineSeparator());
+        if (sb.length() == 0) return false;
+        write(sb);
+        return true;
+    }
+
+    private static void write(StringBuilder sb) {
+        System.out.print(sb);
+        System.out.flush();
+        sb.setLength(0);
+    }
+
+    /**
+     * 输出所有已写入的日志，之后可以直接使用 System.out
+     */
+    public static void flush() {
+        drain(new StringBuilder());
+    }
+}
@@ -0,0 +1,87 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 按校验清单批量校验已有的目的目录，只读取目的文件。
+ * 同一个卷上的目录由一个线程依次校验（机械盘不会因为多个线程交替读取而来回寻道），不同的卷同时校验。
+ */
+public class ManifestVerifier {
+
+    private final LongAdder files = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    /**
+     * 返回校验失败（内容不一致、大小不一致或缺失）的文件数
+     */
+    public long verify(List<String> dirs, VolumeRegistry volumes) throws InterruptedException {
+        Map<VolumeRegistry.Volume, List<String>> byVolume = new LinkedHashMap<>();
+        for (String dir : dirs) byVolume.computeIfAbsent(volumes.volumeOf(dir), v -> new ArrayList<>()).add(dir);
+        if (byVolume.isEmpty()) return 0;
+        ExecutorService exec = Executors.newFixedThreadPool(byVolume.size());
+        long start = System.nanoTime();
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (List<String> group : byVolume.values()) {
+                futures.add(exec.submit(() -> {
+                    for (String dir : group) verifyDir(Paths.get(dir));
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    failures.increment();
+                    Log.error("error: 校验失败", e.getCause());
+                }
+            }
+        } finally {
+            exec.shutdownNow();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        Log.info(String.format("校验完成: %d 个文件, %.2fGB, 用时 %.1fs, %.1fMB/s, 失败 %d 个", files.sum(),
+                bytes.sum() / 1024.0 / 1024 / 1024, seconds, bytes.sum() / 1024.0 / 1024 / Math.max(seconds, 0.001),
+                failures.sum()));
+        return failures.sum();
+    }
+
+    private void verifyDir(Path dir) throws IOException {
+        Map<String, ChecksumManifest.Entry> entries = ChecksumManifest.read(dir);
+        if (entries.isEmpty()) Log.warn("error: " + dir + " 中没有校验清单 " + ChecksumManifest.NAME);
+        for (Map.Entry<String, ChecksumManifest.Entry> e : entries.entrySet()) {
+            Path file = dir.resolve(e.getKey());
+            ChecksumManifest.Entry expected = e.getValue();
+            if (!Files.exists(file)) {
+                fail(file, "文件不存在");
+                continue;
+            }
+            long size = Files.size(file);
+            if (size != expected.size) {
+                fail(file, "大小不一致 " + size + "/" + expected.size);
+                continue;
+            }
+            long crc = Crc32c.of(file);
+            files.increment();
+            bytes.add(size);
+            if (crc != expected.crc) fail(file, String.format("CRC32C 不一致 %08x/%08x", crc, expected.crc));
+            else if (Log.fileEnabled()) Log.file("ok: " + file);
+        }
+    }
+
+    private void fail(Path file, String reason) {
+        failures.increment();
+        Log.error("error: 校验失败 " + file + ": " + reason);
+    }
+}
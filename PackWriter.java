@@ -0,0 +1,226 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
+
+/**
+ * 把小文件顺序写入目的目录中的打包文件 pack-00001.tar，tar -xf 可直接解开。
+ * 每个文件只有一次 write 调用（tar 头、内容和补齐一起写），目的盘上不再为每个小文件创建、打开和关闭文件。
+ * 同名文件再次写入时追加在后面，解包时后写的覆盖先写的。
+ * 打包文件超过 containerSize 后写入 tar 结束标记并换下一个，同时写出索引 pack-00001.tar.idx，
+ * 每行为内容偏移、大小和文件名，可以不解包直接读取其中一个文件。
+ * 循环扫描时打包文件 IDLE_SECONDS 秒没有新文件也会结束（finishIdle），退出时由关闭钩子结束，不会留下没有索引的打包文件。
+ * 打包文件创建后 fsync 目录，结束时先 fsync 再写索引；--durability file 时用 force 落盘，同时追加的几个文件共用一次 fsync。
+ */
+public class PackWriter implements Closeable {
+
+    public static final String PREFIX = "pack-";
+    public static final String SUFFIX = ".tar";
+    public static final String INDEX_SUFFIX = ".idx";
+    public static final long IDLE_SECONDS = 30;
+    private static final int BLOCK = 512;
+
+    private final Path dir;
+    private final long containerSize;
+    private final ChecksumManifest manifest; // 不为 null 时打包文件写完后记录校验值
+    private FileChannel out;
+    private Path container;
+    private int number;
+    private long position;
+    private CRC32C crc;
+    private StringBuilder index;
+    private long appended; // 追加过的文件数
+    private long lastAppend;
+    private boolean closed;
+    private final Object forceLock = new Object();
+    private long forced; // 前 forced 个追加的文件已落盘，由 forceLock 保护
+
+    public PackWriter(Path dir, long containerSize, ChecksumManifest manifest) {
+        this.dir = dir;
+        this.containerSize = containerSize;
+        this.manifest = manifest;
+    }
+
+    /**
+     * size 字节的文件打包后最多占用的字节数（tar 头、长文件名的 pax 头和补齐），复制前按此预留空间
+     */
+    public static long maxEntrySize(long size) {
+        return 3 * BLOCK + pad(size);
+    }
+
+    /**
+     * 把一个文件加入打包文件，返回写入的字节数；container 不为 null 时写入所在的打包文件
+     */
+    public synchronized long append(String name, byte[] data, long mtime, File[] container) throws IOException, InterruptedException {
+        if (closed) throw new IOException("打包文件已关闭，" + name + " 下次重新复制"); // 关闭钩子之后不再开始新的打包文件
+        if (out == null) open();
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        boolean pax = nameBytes.length > 100 || nameBytes.length != name.length(); // 长文件名或非 ASCII 文件名
+        byte[] paxData = pax ? paxRecord("path", name) : null;
+        int length = (pax ? BLOCK + (int) pad(paxData.length) : 0) + BLOCK + (int) pad(data.length);
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        if (pax) {
+            buffer.put(header(("PaxHeaders/" + asciiName(name)).getBytes(StandardCharsets.US_ASCII), paxData.length, mtime, (byte) 'x'));
+            buffer.put(paxData);
+            buffer.position(BLOCK + (int) pad(paxData.length));
+        }
+        buffer.put(header(pax ? asciiName(name).getBytes(StandardCharsets.US_ASCII) : nameBytes, data.length, mtime, (byte) '0'));
+        int dataOffset = buffer.position();
+        buffer.put(data);
+        buffer.clear();
+        try {
+            while (buffer.hasRemaining()) out.write(buffer);
+        } catch (IOException e) {
+            out.truncate(position); // 去掉写了一半的文件，后面的文件接着上一个完整的文件写
+            throw e;
+        }
+        if (crc != null) crc.update(buffer.array(), 0, length);
+        if (container != null) container[0] = this.container.toFile();
+        index.append(position + dataOffset).append(' ').append(data.length).append(' ').append(name).append('\n');
+        position += length;
+        appended++;
+        lastAppend = System.nanoTime();
+        if (position >= containerSize) finish();
+        return length;
+    }
+
+    // 从已有的打包文件之后编号，不追加到上次运行留下的打包文件
+    private void open() throws IOException {
+        if (number == 0) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, PREFIX + "*" + SUFFIX)) {
+                for (Path p : stream) {
+                    String n = p.getFileName().toString();
+                    try {
+                        number = Math.max(number, Integer.parseInt(n.substring(PREFIX.length(), n.length() - SUFFIX.length())));
+                    } catch (NumberFormatException ignored) {
+                    }
+                }
+            }
+        }
+        number++;
+        container = dir.resolve(String.format("%s%05d%s", PREFIX, number, SUFFIX));
+        out = FileChannel.open(container, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW);
+        Durability.forceDirectory(dir); // 之后每次落盘只需要 fsync 打包文件
+        position = 0;
+        crc = manifest == null ? null : new CRC32C();
+        index = new StringBuilder();
+    }
+
+    // 写入 tar 结束标记（两个全 0 的块）和索引
+    private void finish() throws IOException, InterruptedException {
+        ByteBuffer end = ByteBuffer.allocate(2 * BLOCK);
+        while (end.hasRemaining()) out.write(end);
+        position += 2 * BLOCK;
+        if (crc != null) crc.update(new byte[2 * BLOCK]);
+        out.force(true); // 索引和清单只指向已落盘的内容
+        out.close();
+        out = null;
+        Files.write(dir.resolve(container.getFileName() + INDEX_SUFFIX), index.toString().getBytes(StandardCharsets.UTF_8));
+        if (manifest != null) manifest.record(container.getFileName().toString(), position, crc.getValue());
+    }
+
+    /**
+     * 落盘到目前为止追加的所有文件；几个线程同时调用时，后来的线程等前一次 fsync 结束，
+     * 再用一次 fsync 覆盖这期间所有的追加，已被覆盖的直接返回
+     */
+    public void force() throws IOException {
+        long target;
+        synchronized (this) {
+            target = appended;
+        }
+        synchronized (forceLock) {
+            if (forced >= target) return;
+            FileChannel channel;
+            long upTo;
+            synchronized (this) {
+                channel = out; // 之前的打包文件在结束时已落盘
+                upTo = appended;
+            }
+            try {
+                if (channel != null) channel.force(true);
+            } catch (ClosedChannelException e) {
+                // 刚结束，finish 已落盘
+            }
+            forced = upTo;
+        }
+    }
+
+    /**
+     * 打包文件 idleSeconds 秒没有追加新文件时结束它，循环扫描时定期调用
+     */
+    public synchronized void finishIdle(long idleSeconds) {
+        if (System.nanoTime() - lastAppend >= TimeUnit.SECONDS.toNanos(idleSeconds)) finishQuietly();
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        finishQuietly();
+    }
+
+    private void finishQuietly() {
+        if (out == null) return;
+        try {
+            finish();
+        } catch (IOException e) {
+            Log.error("error: 关闭打包文件 " + container + " 失败", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // ustar 文件头
+    private static byte[] header(byte[] name, long size, long mtime, byte type) {
+        byte[] h = new byte[BLOCK];
+        System.arraycopy(name, 0, h, 0, Math.min(name.length, 100));
+        octal(h, 100, 8, 0644);
+        octal(h, 108, 8, 0);
+        octal(h, 116, 8, 0);
+        octal(h, 124, 12, size);
+        octal(h, 136, 12, Math.max(0, mtime / 1000));
+        for (int i = 148; i < 156; i++) h[i] = ' ';
+        h[156] = type;
+        System.arraycopy("ustar\00000".getBytes(StandardCharsets.US_ASCII), 0, h, 257, 8);
+        long sum = 0;
+        for (byte b : h) sum += b & 0xff;
+        octal(h, 148, 7, sum);
+        h[154] = 0;
+        return h;
+    }
+
+    private static void octal(byte[] h, int offset, int length, long value) {
+        String s = Long.toOctalString(value);
+        int digits = length - 1; // 最后一个字节为 NUL
+        for (int i = 0; i < digits; i++) {
+            int j = s.length() - digits + i;
+            h[offset + i] = (byte) (j < 0 ? '0' : s.charAt(j));
+        }
+    }
+
+    // pax 扩展头的一条记录："长度 key=value\n"，长度包含自身
+    private static byte[] paxRecord(String key, String value) {
+        int body = (" " + key + "=" + value + "\n").getBytes(StandardCharsets.UTF_8).length;
+        int length = body + 1;
+        while (String.valueOf(length).length() + body != length) length++;
+        return (length + " " + key + "=" + value + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    // 不支持 pax 的旧 tar 看到的文件名
+    private static String asciiName(String name) {
+        String s = name.replaceAll("[^\\x20-\\x7e]", "_");
+        return s.length() > 100 ? s.substring(s.length() - 100) : s;
+    }
+
+    private static long pad(long size) {
+        return (size + BLOCK - 1) / BLOCK * BLOCK;
+    }
+}
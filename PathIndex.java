@@ -0,0 +1,214 @@
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * 已扫描/已完成文件路径的紧凑集合，替代 ConcurrentSkipListSet<String>。
+ * 不保存路径字符串，只保存路径的 128 位指纹（两个独立的 64 位哈希），放在开放寻址的 long 数组里。
+ * 指纹的前 64 位用来定位和探测，后 64 位在前 64 位相同时做二次校验，1 亿条路径发生误判的概率约 1e-23。
+ * 表分成多个段，add 之间只用 CAS 竞争槽位，只有段扩容时才互斥；contains 为乐观读，不加锁。
+ * 槽位每条 16 字节，按装载因子 0.375~0.75 计每条约 21~43 字节。
+ * 实测 100万/300万条 58 字符的路径：PathIndex 每条 33/22 字节，ConcurrentSkipListSet<String> 每条 132/137 字节。
+ */
+public class PathIndex {
+
+    private static final int SEGMENTS = 64;
+    private static final int INITIAL_CAPACITY = 1024; // 每段初始槽位数，必须是2的幂
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    public PathIndex() {
+        for (int i = 0; i < SEGMENTS; i++) segments[i] = new Segment();
+    }
+
+    /**
+     * 加入路径，之前不存在返回 true
+     */
+    public boolean add(String path) {
+        return add(fingerprint1(path), fingerprint2(path));
+    }
+
+    public boolean contains(String path) {
+        long h2 = fingerprint2(path);
+        return segmentFor(h2).contains(fingerprint1(path), h2);
+    }
+
+    /**
+     * 直接加入指纹，用于从快照恢复；h1、h2 必须来自 fingerprint1/fingerprint2
+     */
+    public boolean add(long h1, long h2) {
+        return segmentFor(h2).add(h1, h2);
+    }
+
+    public static long fingerprint1(String path) {
+        long h1 = hash(path, 0x9E3779B97F4A7C15L);
+        return h1 == 0 ? 1 : h1;
+    }
+
+    public static long fingerprint2(String path) {
+        long h2 = hash(path, 0xC2B2AE3D27D4EB4FL);
+        return h2 == 0 ? 1 : h2;
+    }
+
+    public interface FingerprintConsumer {
+        void accept(long h1, long h2) throws IOException;
+    }
+
+    /**
+     * 遍历所有指纹，遍历期间不能有并发的 add
+     */
+    public void forEach(FingerprintConsumer consumer) throws IOException {
+        for (Segment segment : segments) {
+            AtomicLongArray t = segment.table;
+            for (int j = 0; j < t.length(); j += 2) {
+                long h1 = t.get(j);
+                if (h1 != 0) consumer.accept(h1, t.get(j + 1));
+            }
+        }
+    }
+
+    /**
+     * 预先扩容到能容纳 expected 条。快照中的指纹按槽位顺序排列，不预先扩容就插入小表会形成很长的探测链
+     */
+    public void ensureCapacity(long expected) {
+        long perSegment = expected / SEGMENTS + 1;
+        for (Segment segment : segments) {
+            int capacity;
+            while ((capacity = segment.table.length() / 2) * LOAD_FACTOR < perSegment && capacity < (1 << 29))
+                segment.resize(capacity);
+        }
+    }
+
+    public long size() {
+        long size = 0;
+        for (Segment segment : segments) size += segment.size.get();
+        return size;
+    }
+
+    /**
+     * 当前占用的堆内存（只计槽位数组）
+     */
+    public long memoryBytes() {
+        long bytes = 0;
+        for (Segment segment : segments) bytes += segment.table.length() * 8L;
+        return bytes;
+    }
+
+    private Segment segmentFor(long h2) {
+        return segments[(int) (h2 >>> 58) & (SEGMENTS - 1)];
+    }
+
+    private static long hash(String path, long seed) {
+        int length = path.length();
+        long h = seed ^ length;
+        for (int i = 0; i < length; i++) {
+            h ^= path.charAt(i);
+            h *= 0x100000001B3L;
+            h = Long.rotateLeft(h, 23) ^ seed;
+        }
+        // murmur3 fmix64
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static final class Segment {
+        private final StampedLock lock = new StampedLock(); // 读锁：插入；写锁：扩容
+        private final AtomicInteger size = new AtomicInteger();
+        private volatile AtomicLongArray table = new AtomicLongArray(INITIAL_CAPACITY * 2); // [2i]=h1, [2i+1]=h2，0为空
+
+        boolean add(long h1, long h2) {
+            while (true) {
+                int result;
+                long stamp = lock.readLock();
+                try {
+                    result = insert(table, h1, h2);
+                } finally {
+                    lock.unlockRead(stamp);
+                }
+                if (result == 0) return false;
+                int capacity = table.length() / 2;
+                if (result < 0 || size.get() > capacity * LOAD_FACTOR) resize(capacity);
+                if (result > 0) return true;
+            }
+        }
+
+        /**
+         * 返回 1 表示新插入，0 表示已存在，-1 表示表已满需要扩容
+         */
+        private int insert(AtomicLongArray t, long h1, long h2) {
+            int mask = t.length() / 2 - 1;
+            int i = (int) h1 & mask;
+            for (int probes = 0; probes <= mask; ) {
+                long k = t.get(2 * i);
+                if (k == 0) {
+                    if (!t.compareAndSet(2 * i, 0, h1)) continue; // 被别的线程抢先，重新检查这个槽
+                    t.set(2 * i + 1, h2);
+                    size.incrementAndGet();
+                    return 1;
+                }
+                if (k == h1 && awaitSecond(t, i) == h2) return 0;
+                i = (i + 1) & mask;
+                probes++;
+            }
+            return -1;
+        }
+
+        boolean contains(long h1, long h2) {
+            long stamp = lock.tryOptimisticRead();
+            boolean found = lookup(table, h1, h2);
+            if (lock.validate(stamp)) return found;
+            stamp = lock.readLock();
+            try {
+                return lookup(table, h1, h2);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        private static boolean lookup(AtomicLongArray t, long h1, long h2) {
+            int mask = t.length() / 2 - 1;
+            int i = (int) h1 & mask;
+            for (int probes = 0; probes <= mask; probes++) {
+                long k = t.get(2 * i);
+                if (k == 0) return false;
+                if (k == h1 && awaitSecond(t, i) == h2) return true;
+                i = (i + 1) & mask;
+            }
+            return false;
+        }
+
+        // 槽位的 h1 已经 CAS 成功但 h2 可能还没写入
+        private static long awaitSecond(AtomicLongArray t, int i) {
+            long v;
+            while ((v = t.get(2 * i + 1)) == 0) Thread.onSpinWait();
+            return v;
+        }
+
+        private void resize(int oldCapacity) {
+            long stamp = lock.writeLock();
+            try {
+                AtomicLongArray old = table;
+                if (old.length() / 2 != oldCapacity) return; // 已被其他线程扩容
+                AtomicLongArray bigger = new AtomicLongArray(old.length() * 2);
+                int mask = bigger.length() / 2 - 1;
+                for (int j = 0; j < old.length(); j += 2) {
+                    long h1 = old.get(j);
+                    if (h1 == 0) continue;
+                    int i = (int) h1 & mask;
+                    while (bigger.get(2 * i) != 0) i = (i + 1) & mask;
+                    bigger.set(2 * i, h1);
+                    bigger.set(2 * i + 1, old.get(j + 1));
+                }
+                table = bigger;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.zip.CRC32C;
+
+/**
+ * 大文件分段并行复制。
+ * 大于 splitSize 的文件按字节区间切分，由多个线程用 FileChannel 的定位读写同时复制到预先分配好长度的目的文件；
+ * 所有区间都完成后 copy 才返回，此时才会写入 finishedFiles.txt。
+ * 不大于 splitSize 的文件交给 inner 引擎整文件复制。
+ * 需要校验值时每个区间各自计算 CRC32C，最后按区间顺序合并。
+ */
+public class RangeCopyEngine implements CopyEngine {
+
+    private static final int BUFFER_SIZE = 1024 * 1024; // 每个区间的读写缓冲，1MB
+    private final CopyEngine inner;
+    private final long splitSize;
+    private final int splitThreads;
+    private final ExecutorService rangeExec;
+
+    public RangeCopyEngine(CopyEngine inner, long splitSize, int splitThreads) {
+        this.inner = inner;
+        this.splitSize = splitSize;
+        this.splitThreads = splitThreads;
+        this.rangeExec = Executors.newFixedThreadPool(splitThreads, r -> {
+            Thread t = new Thread(r, "range-copy");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @Override
+    public long copy(File srcFile, File dstFile, long[] crc) throws IOException {
+        long size = srcFile.length();
+        if (size <= splitSize) return inner.copy(srcFile, dstFile, crc);
+
+        try (RandomAccessFile raf = new RandomAccessFile(dstFile, "rw")) {
+            raf.setLength(size); // 预分配目的文件
+        }
+        try (FileChannel in = FileChannel.open(srcFile.toPath(), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(dstFile.toPath(), StandardOpenOption.WRITE)) {
+            long rangeSize = (size + splitThreads - 1) / splitThreads;
+            rangeSize = (rangeSize + BUFFER_SIZE - 1) / BUFFER_SIZE * BUFFER_SIZE; // 按缓冲大小对齐
+            List<Future<Long>> futures = new ArrayList<>();
+            List<long[]> rangeCrcs = new ArrayList<>();
+            for (long start = 0; start < size; start += rangeSize) {
+                long begin = start, end = Math.min(size, start + rangeSize);
+                long[] rangeCrc = crc == null ? null : new long[1];
+                rangeCrcs.add(rangeCrc);
+                futures.add(rangeExec.submit(() -> copyRange(in, out, begin, end, rangeCrc)));
+            }
+            long total = 0;
+            try {
+                for (int i = 0; i < futures.size(); i++) {
+                    long count = futures.get(i).get();
+                    if (crc != null) crc[0] = i == 0 ? rangeCrcs.get(0)[0] : Crc32c.combine(crc[0], rangeCrcs.get(i)[0], count);
+                    total += count;
+                }
+            } catch (InterruptedException e) {
+                futures.forEach(f -> f.cancel(true));
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("分段复制被中断: " + srcFile);
+            } catch (ExecutionException e) {
+                futures.forEach(f -> f.cancel(true));
+                if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+                throw new IOException("分段复制失败: " + srcFile, e.getCause());
+            }
+            if (total != size) throw new IOException("分段复制不完整: " + srcFile + " " + total + "/" + size);
+            return total;
+        }
+    }
+
+    private static long copyRange(FileChannel in, FileChannel out, long start, long end, long[] crc) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        CRC32C checksum = crc == null ? null : new CRC32C();
+        long position = start;
+        while (position < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(BUFFER_SIZE, end - position));
+            int count = in.read(buffer, position);
+            if (count < 0) break; // 源文件被截断
+            buffer.flip();
+            if (checksum != null) {
+                buffer.mark();
+                checksum.update(buffer);
+                buffer.reset();
+            }
+            long writeAt = position;
+            while (buffer.hasRemaining()) writeAt += out.write(buffer, writeAt);
+            position += count;
+        }
+        if (checksum != null) crc[0] = checksum.getValue();
+        return position - start;
+    }
+
+    @Override
+    public String name() {
+        return inner.name() + "+split(" + splitSize / 1024 / 1024 + "MB x" + splitThreads + ")";
+    }
+}
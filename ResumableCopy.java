@@ -0,0 +1,191 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+/**
+ * 可续传的复制。所有文件先写到 目的文件名.part，写完后原子改名为目的文件名，中途崩溃不会留下看起来完整的半截文件。
+ * 大于 interval 的文件分段复制，每段复制完强制落盘，再写检查点 .part.ckpt：源文件大小、修改时间、已复制的字节数和这部分的 CRC32C。
+ * 中断后再次复制同一个文件时，如果源文件没变、.part 不短于检查点、并且检查点之前 1MB 的内容和源文件一致，
+ * 就截断到检查点继续复制，否则从头复制。
+ */
+public class ResumableCopy {
+
+    public static final String PART_SUFFIX = ".part";
+    public static final String CHECKPOINT_SUFFIX = ".ckpt";
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private final long interval;
+
+    public ResumableCopy(long interval) {
+        this.interval = interval;
+    }
+
+    public long interval() {
+        return interval;
+    }
+
+    public static File partFile(File dstFile) {
+        return new File(dstFile.getPath() + PART_SUFFIX);
+    }
+
+    /**
+     * 把 srcFile 复制到 part，size 和 mtime 为扫描时的源文件大小和修改时间；crc 不为 null 时写入整个文件的 CRC32C
+     */
+    public long copy(File srcFile, File part, long size, long mtime, long[] crc) throws IOException {
+        Path checkpoint = checkpointOf(part);
+        long offset = 0, prefixCrc = 0;
+        boolean knownCrc = true;
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        try (FileChannel in = FileChannel.open(srcFile.toPath(), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(part.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE,
+                     StandardOpenOption.CREATE)) {
+            String[] cp = readCheckpoint(checkpoint);
+            if (cp != null && Long.parseLong(cp[0]) == size && Long.parseLong(cp[1]) == mtime) {
+                long saved = Long.parseLong(cp[2]);
+                if (saved <= in.size() && saved <= out.size() && tailMatches(in, out, saved)) {
+                    offset = saved;
+                    knownCrc = !cp[3].equals("-");
+                    if (knownCrc) prefixCrc = Long.parseLong(cp[3], 16);
+                    Log.info("续传 " + srcFile + " 从 " + offset / 1024 / 1024 + "MB 处继续");
+                }
+            }
+            if (crc != null && !knownCrc) prefixCrc = crcOf(out, offset, buffer); // 上次没有计算校验值
+            out.position(offset); // 检查点之后的内容直接覆盖，写完再截断，不释放预分配的块
+            boolean hashing = crc != null || knownCrc && offset > 0;
+            long total = offset, totalCrc = prefixCrc;
+            while (true) {
+                long count = Math.min(interval, in.size() - total);
+                if (count <= 0) break;
+                long[] chunkCrc = hashing ? new long[1] : null;
+                long n = copyChunk(in, out, total, count, buffer, chunkCrc);
+                if (n <= 0) break; // 源文件被截断
+                if (hashing) totalCrc = Crc32c.combine(totalCrc, chunkCrc[0], n);
+                total += n;
+                if (total < in.size()) {
+                    out.force(false); // 检查点之前的内容必须已落盘
+                    writeCheckpoint(checkpoint, size + " " + mtime + " " + total + " "
+                            + (hashing ? Long.toHexString(totalCrc) : "-"));
+                }
+            }
+            out.truncate(total);
+            if (crc != null) crc[0] = totalCrc;
+            return total;
+        }
+    }
+
+    /**
+     * 复制完成，把 part 改名为 dstFile（已存在时替换），并删除检查点
+     */
+    public static void promote(File part, File dstFile) throws IOException {
+        try {
+            Files.move(part.toPath(), dstFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(part.toPath(), dstFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        Files.deleteIfExists(checkpointOf(part));
+    }
+
+    /**
+     * 复制失败，删除 part 和检查点
+     */
+    public static void discard(File part) {
+        part.delete();
+        checkpointOf(part).toFile().delete();
+    }
+
+    private static Path checkpointOf(File part) {
+        return new File(part.getPath() + CHECKPOINT_SUFFIX).toPath();
+    }
+
+    private static long copyChunk(FileChannel in, FileChannel out, long position, long count, ByteBuffer buffer,
+                                  long[] crc) throws IOException {
+        long done = 0;
+        if (crc == null) {
+            while (done < count) {
+                long n = in.transferTo(position + done, count - done, out);
+                if (n <= 0) break;
+                done += n;
+            }
+            return done;
+        }
+        CRC32C checksum = new CRC32C();
+        while (done < count) {
+            buffer.clear();
+            if (count - done < buffer.capacity()) buffer.limit((int) (count - done));
+            int n = in.read(buffer, position + done);
+            if (n <= 0) break;
+            buffer.flip();
+            checksum.update(buffer);
+            buffer.flip();
+            while (buffer.hasRemaining()) out.write(buffer);
+            done += n;
+        }
+        crc[0] = checksum.getValue();
+        return done;
+    }
+
+    // 检查点之前最多 1MB 的内容，源文件和 part 是否一致
+    private static boolean tailMatches(FileChannel in, FileChannel out, long offset) throws IOException {
+        int length = (int) Math.min(BUFFER_SIZE, offset);
+        ByteBuffer a = ByteBuffer.allocate(length);
+        ByteBuffer b = ByteBuffer.allocate(length);
+        return readFully(in, a, offset - length) && readFully(out, b, offset - length) && Arrays.equals(a.array(), b.array());
+    }
+
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) <= 0) return false;
+        }
+        return true;
+    }
+
+    private static long crcOf(FileChannel channel, long length, ByteBuffer buffer) throws IOException {
+        CRC32C checksum = new CRC32C();
+        long position = 0;
+        while (position < length) {
+            buffer.clear();
+            if (length - position < buffer.capacity()) buffer.limit((int) (length - position));
+            int n = channel.read(buffer, position);
+            if (n <= 0) throw new IOException("读取 .part 失败");
+            buffer.flip();
+            checksum.update(buffer);
+            position += n;
+        }
+        return checksum.getValue();
+    }
+
+    private static String[] readCheckpoint(Path checkpoint) {
+        try {
+            if (!Files.exists(checkpoint)) return null;
+            String[] parts = new String(Files.readAllBytes(checkpoint), StandardCharsets.US_ASCII).trim().split(" ");
+            if (parts.length != 4) return null;
+            Long.parseLong(parts[0]);
+            Long.parseLong(parts[1]);
+            Long.parseLong(parts[2]);
+            if (!parts[3].equals("-")) Long.parseLong(parts[3], 16);
+            return parts;
+        } catch (IOException | NumberFormatException e) {
+            return null; // 损坏的检查点，从头复制
+        }
+    }
+
+    // 先写临时文件再改名，检查点本身不会只写了一半
+    private static void writeCheckpoint(Path checkpoint, String line) throws IOException {
+        Path tmp = checkpoint.resolveSibling(checkpoint.getFileName() + ".tmp");
+        Files.write(tmp, line.getBytes(StandardCharsets.US_ASCII));
+        try {
+            Files.move(tmp, checkpoint, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, checkpoint, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,210 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * --resume 的持久化状态：二进制快照 finishedFiles.snap + 文本尾日志 finishedFiles.txt。
+ * 快照只保存已完成文件路径的 128 位指纹（见 PathIndex），启动时用内存映射整体读入；
+ * 尾日志是快照之后 FinishedJournal 追加的记录，按行读取。
+ * 后台压缩把快照和尾日志合并成新快照后清空尾日志；第一次运行时旧的纯文本日志也会这样自动迁移。
+ * 快照格式：8字节魔数 JFSNAP01 + 8字节条数 + 条数 x (h1,h2)，小端序。
+ * --sync 时日志的每行为 syncKey（路径、大小、修改时间），读入时路径和整行各记一个指纹：
+ * 整行的指纹说明这个版本已复制，只有路径的指纹说明文件复制过但之后被修改了。
+ */
+public class ResumeState {
+
+    private static final long MAGIC = 0x31305041_4E53464AL; // "JFSNAP01"
+    private static final int HEADER = 16;
+    private final Path logPath;
+    private final Path snapPath;
+    private final Path tmpPath;
+    private final Charset charset = Charset.defaultCharset(); // 与 FinishedJournal 保持一致
+    private final long compactBytes;
+    private ScheduledExecutorService compactor;
+
+    public ResumeState(Path logPath, long compactBytes) {
+        this.logPath = logPath;
+        this.snapPath = logPath.resolveSibling("finishedFiles.snap");
+        this.tmpPath = logPath.resolveSibling("finishedFiles.snap.tmp");
+        this.compactBytes = compactBytes;
+    }
+
+    /**
+     * 增量同步时记录的文件版本
+     */
+    public static String syncKey(String path, long size, long mtime) {
+        return path + '\t' + size + '\t' + mtime;
+    }
+
+    /**
+     * 源目录里属于 resume 状态的文件，不参与复制
+     */
+    public boolean isStateFile(String fname) {
+        return fname.equals(logPath.toString()) || fname.equals(snapPath.toString()) || fname.equals(tmpPath.toString());
+    }
+
+    /**
+     * 把快照和尾日志读入 index，返回读取的条数
+     */
+    public long load(PathIndex index) {
+        long[] count = {0};
+        try {
+            count[0] += loadSnapshot(index);
+        } catch (IOException e) {
+            Log.error("error: 读取 " + snapPath + " 失败: " + e);
+        }
+        try {
+            readLog(0, Long.MAX_VALUE, (h1, h2) -> {
+                index.add(h1, h2);
+                count[0]++;
+            });
+        } catch (IOException e) {
+            Log.error("error: 读取 " + logPath + " 失败: " + e);
+        }
+        return count[0];
+    }
+
+    private long loadSnapshot(PathIndex index) throws IOException {
+        if (!Files.exists(snapPath)) return 0;
+        try (FileChannel channel = FileChannel.open(snapPath, StandardOpenOption.READ)) {
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            map.order(ByteOrder.LITTLE_ENDIAN);
+            if (channel.size() < HEADER || map.getLong(0) != MAGIC)
+                throw new IOException("不是有效的快照文件");
+            long count = map.getLong(8);
+            if (channel.size() != HEADER + count * 16)
+                throw new IOException("快照长度不匹配");
+            index.ensureCapacity(index.size() + count);
+            map.position(HEADER);
+            for (long i = 0; i < count; i++) index.add(map.getLong(), map.getLong());
+            return count;
+        }
+    }
+
+    /**
+     * 读取日志 [from, to) 中的完整行，返回最后一个完整行之后的位置；不完整的最后一行留给下次
+     */
+    private long readLog(long from, long to, PathIndex.FingerprintConsumer consumer) throws IOException {
+        if (!Files.exists(logPath)) return from;
+        long consumed = from;
+        try (FileChannel channel = FileChannel.open(logPath, StandardOpenOption.READ)) {
+            long end = Math.min(to, channel.size());
+            long position = from;
+            ByteBuffer buffer = ByteBuffer.allocate(1024 * 1024);
+            while (position < end) {
+                buffer.limit((int) Math.min(buffer.capacity(), buffer.position() + end - position));
+                int read = channel.read(buffer, position);
+                if (read <= 0) break;
+                position += read;
+                long base = position - buffer.position(); // buffer[0] 在文件中的位置
+                byte[] bytes = buffer.array();
+                int lineStart = 0;
+                for (int i = 0; i < buffer.position(); i++) {
+                    if (bytes[i] != '\n') continue;
+                    String fname = new String(bytes, lineStart, i - lineStart, charset).trim(); // trim 去掉 \r
+                    lineStart = i + 1;
+                    consumed = base + lineStart;
+                    if (fname.isEmpty()) continue;
+                    consumer.accept(PathIndex.fingerprint1(fname), PathIndex.fingerprint2(fname));
+                    int tab = fname.indexOf('\t');
+                    if (tab > 0) {
+                        String path = fname.substring(0, tab);
+                        consumer.accept(PathIndex.fingerprint1(path), PathIndex.fingerprint2(path));
+                    }
+                }
+                buffer.limit(buffer.position()).position(lineStart);
+                buffer.compact(); // 不完整的行移到缓冲区开头
+                if (!buffer.hasRemaining()) { // 单行超过缓冲区
+                    ByteBuffer bigger = ByteBuffer.allocate(buffer.capacity() * 2);
+                    buffer.flip();
+                    bigger.put(buffer);
+                    buffer = bigger;
+                }
+            }
+        }
+        return consumed;
+    }
+
+    /**
+     * 快照不存在而日志非空（旧版本留下的纯文本日志），或尾日志超过阈值时需要压缩
+     */
+    public boolean needsCompaction() throws IOException {
+        if (!Files.exists(logPath)) return false;
+        long logSize = Files.size(logPath);
+        return logSize > compactBytes || (logSize > 0 && !Files.exists(snapPath));
+    }
+
+    /**
+     * 在后台线程中按 checkMillis 检查并压缩
+     */
+    public void startCompactor(FinishedJournal journal, long checkMillis) {
+        compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "resume-compactor");
+            t.setDaemon(true);
+            return t;
+        });
+        compactor.scheduleWithFixedDelay(() -> {
+            try {
+                if (needsCompaction()) compact(journal);
+            } catch (IOException e) {
+                Log.error("error: 压缩 " + logPath + " 失败: " + e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, 0, checkMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 第一阶段在当前线程合并旧快照和已有的日志并写入临时快照；
+     * 第二阶段在 journal 写线程上补上这期间新增的日志，替换快照后清空日志。
+     * 替换快照和清空日志之间崩溃时，日志里的记录会被再读一次，不会丢失。
+     */
+    public void compact(FinishedJournal journal) throws IOException, InterruptedException {
+        long start = System.currentTimeMillis();
+        PathIndex merged = new PathIndex();
+        loadSnapshot(merged);
+        long covered = readLog(0, Files.size(logPath), merged::add);
+        try (FileChannel out = FileChannel.open(tmpPath, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(1024 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putLong(MAGIC).putLong(0);
+            merged.forEach((h1, h2) -> {
+                if (!buffer.hasRemaining()) flush(out, buffer);
+                buffer.putLong(h1).putLong(h2);
+            });
+            flush(out, buffer);
+            journal.checkpoint(logLength -> {
+                // 写线程已暂停，补上第一阶段之后追加的记录
+                readLog(covered, logLength, (h1, h2) -> {
+                    if (merged.add(h1, h2)) {
+                        if (!buffer.hasRemaining()) flush(out, buffer);
+                        buffer.putLong(h1).putLong(h2);
+                    }
+                });
+                flush(out, buffer);
+                buffer.putLong(merged.size());
+                buffer.flip();
+                out.write(buffer, 8);
+                out.force(true);
+                Files.move(tmpPath, snapPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                // 改名落盘之后才能清空日志，否则断电后可能新快照没了、日志却已清空
+                Durability.forceDirectory(snapPath.toAbsolutePath().getParent());
+            });
+        }
+        Log.info("resume 快照已压缩: " + merged.size() + " 条, 用时 "
+                + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    private static void flush(FileChannel out, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) out.write(buffer);
+        buffer.clear();
+    }
+}
@@ -0,0 +1,122 @@
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * 用 WatchService 监听源目录，只把新建或修改过的文件交给 Visitor，不再每轮全量扫描。
+ * 递归模式下新建的子目录会自动注册并补扫一次；事件溢出(OVERFLOW)时调用 onOverflow 做一次全量对账。
+ * 文件在 settleMillis 内没有新的修改事件才算写完，避免复制到还在写入中的文件。
+ */
+public class SrcWatcher implements Runnable {
+
+    private final Path root;
+    private final boolean recursive;
+    private final long settleMillis;
+    private final DirWalker.Visitor visitor;
+    private final Runnable onOverflow;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> keyDirs = new ConcurrentHashMap<>();
+    private final Map<Path, Long> pending = new ConcurrentHashMap<>(); // 等待写完的文件 -> 最后一次事件时间
+
+    public SrcWatcher(Path root, boolean recursive, long settleMillis,
+                      DirWalker.Visitor visitor, Runnable onOverflow) throws IOException {
+        this.root = root;
+        this.recursive = recursive;
+        this.settleMillis = settleMillis;
+        this.visitor = visitor;
+        this.onOverflow = onOverflow;
+        this.watchService = root.getFileSystem().newWatchService();
+        register(root);
+    }
+
+    private void register(Path dir) throws IOException {
+        if (!recursive) {
+            keyDirs.put(dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY), dir);
+            return;
+        }
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs) throws IOException {
+                keyDirs.put(d.register(watchService, ENTRY_CREATE, ENTRY_MODIFY), d);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (!dir.equals(root) && attrs.isRegularFile()) pending.put(file, System.currentTimeMillis());
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey key = watchService.poll(pending.isEmpty() ? 1000 : settleMillis, TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    handle(key);
+                }
+                flushSettled();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // 停止监听
+        } finally {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                // can't do anything
+            }
+        }
+    }
+
+    private void handle(WatchKey key) {
+        Path dir = keyDirs.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW || dir == null) {
+                onOverflow.run();
+                continue;
+            }
+            Path child = dir.resolve((Path) event.context());
+            if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                if (recursive && event.kind() == ENTRY_CREATE) {
+                    try {
+                        register(child); // 新目录里在注册之前就写入的文件也会一并加入
+                    } catch (IOException e) {
+                        Log.error("error: 监听目录 " + child + " 失败: " + e);
+                    }
+                }
+            } else {
+                pending.put(child, System.currentTimeMillis());
+            }
+        }
+        if (!key.reset()) keyDirs.remove(key);
+    }
+
+    private void flushSettled() throws InterruptedException {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<Path, Long>> it = pending.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Path, Long> entry = it.next();
+            if (now - entry.getValue() < settleMillis) continue;
+            it.remove();
+            try {
+                BasicFileAttributes attrs = Files.readAttributes(entry.getKey(), BasicFileAttributes.class);
+                if (attrs.isRegularFile()) visitor.visitFile(entry.getKey(), attrs);
+            } catch (IOException e) {
+                // 文件已被删除或改名
+            }
+        }
+    }
+}
@@ -0,0 +1,159 @@
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 待复制文件的任务队列，取代 FIFO 的 LinkedBlockingQueue。
+ * 排序策略：
+ * fifo:         按扫描顺序
+ * size-desc:    大文件优先，配合复制线程谁先空闲谁取任务，相当于 LPT 装箱，避免最后只剩一个大文件在复制
+ * small-first:  小文件优先，小文件不会排在大文件后面
+ * newest-first: 修改时间最新的优先
+ * 排序只在队列中的任务之间进行：队列最多 capacity 个任务，满了扫描线程等待，
+ * 几百万个文件的目录树不会全部留在内存里；排序时 capacity 应取得大一些（见 --orderWindow），窗口越大越接近整体排序。
+ * largeThreshold 大于 0 时分成大文件和小文件两条通道：小文件通道的复制线程只取小文件，
+ * 大文件通道的线程优先取大文件，没有大文件时也取小文件，两条通道同时进行。
+ * finish 之后队列为空时 take 返回 null，复制线程据此退出。
+ */
+public class TaskQueue {
+
+    public enum Order { FIFO, SIZE_DESC, SMALL_FIRST, NEWEST_FIRST }
+
+    public enum Lane { SMALL, LARGE }
+
+    public static final int DEFAULT_WINDOW = 100_000; // 排序时队列的长度，每个任务约 200 字节
+
+    private final Queue<CopyTask> small;
+    private final Queue<CopyTask> large;
+    private final long largeThreshold;
+    private final int capacity;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private int count;
+    private boolean finished;
+
+    public TaskQueue(Order order, long largeThreshold, int capacity) {
+        this.small = newQueue(order);
+        this.large = largeThreshold > 0 ? newQueue(order) : small;
+        this.largeThreshold = largeThreshold;
+        this.capacity = capacity;
+    }
+
+    private static Queue<CopyTask> newQueue(Order order) {
+        Comparator<CopyTask> bySeq = Comparator.comparingLong(t -> t.queuedAt);
+        switch (order) {
+            case SIZE_DESC:
+                return new PriorityQueue<>(Comparator.<CopyTask>comparingLong(t -> -t.size).thenComparing(bySeq));
+            case SMALL_FIRST:
+                return new PriorityQueue<>(Comparator.<CopyTask>comparingLong(t -> t.size).thenComparing(bySeq));
+            case NEWEST_FIRST:
+                return new PriorityQueue<>(Comparator.<CopyTask>comparingLong(t -> -t.mtime).thenComparing(bySeq));
+            default:
+                return new ArrayDeque<>();
+        }
+    }
+
+    public boolean offer(CopyTask task, long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (count >= capacity) {
+                if (nanos <= 0) return false;
+                nanos = notFull.awaitNanos(nanos);
+            }
+            enqueue(task);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 复制失败的文件重新入队，不受长度限制：复制线程如果在这里等空位，而扫描线程在等复制线程取走任务，两边会互相等待
+     */
+    public void requeue(CopyTask task) {
+        lock.lock();
+        try {
+            enqueue(task);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void enqueue(CopyTask task) {
+        (task.size >= largeThreshold && largeThreshold > 0 ? large : small).add(task);
+        count++;
+        notEmpty.signalAll();
+    }
+
+    public void put(CopyTask task) throws InterruptedException {
+        offer(task, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 没有任务时立即返回 null
+     */
+    public CopyTask poll(Lane lane) {
+        lock.lock();
+        try {
+            return dequeue(lane);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 等待任务；扫描结束且队列为空时返回 null
+     */
+    public CopyTask take(Lane lane) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            CopyTask task;
+            while ((task = dequeue(lane)) == null) {
+                if (finished && count == 0) return null;
+                notEmpty.await();
+            }
+            return task;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private CopyTask dequeue(Lane lane) {
+        CopyTask task = lane == Lane.LARGE ? large.poll() : null;
+        if (task == null) task = small.poll();
+        if (task != null) {
+            count--;
+            notFull.signal();
+            if (finished && count == 0) notEmpty.signalAll(); // 让只取小文件的线程也能退出
+        }
+        return task;
+    }
+
+    /**
+     * 扫描结束，不会再有新任务
+     */
+    public void finish() {
+        lock.lock();
+        try {
+            finished = true;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
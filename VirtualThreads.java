@@ -0,0 +1,86 @@
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.lang.invoke.MethodType.methodType;
+
+/**
+ * JDK 21 的虚拟线程（--virtual true）。项目按 Java 17 编译，Thread.ofVirtual 通过 MethodHandle 调用，
+ * 运行在 JDK 21 以下时 available() 为 false，所有线程仍为平台线程。
+ * 开启后扫描、每个复制任务、完成记录的写线程和落盘线程都是虚拟线程；其他线程不受影响。
+ */
+public final class VirtualThreads {
+
+    private static final MethodHandle OF_VIRTUAL; // Thread.ofVirtual()
+    private static final MethodHandle NAME;       // Thread.Builder.name(String)
+    private static final MethodHandle FACTORY;    // Thread.Builder.factory()
+    private static volatile boolean enabled = false;
+
+    static {
+        MethodHandle ofVirtual = null, name = null, factory = null;
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            Class<?> ofVirtualType = Class.forName("java.lang.Thread$Builder$OfVirtual");
+            ofVirtual = lookup.findStatic(Thread.class, "ofVirtual", methodType(ofVirtualType))
+                    .asType(methodType(Object.class));
+            name = lookup.findVirtual(builder, "name", methodType(builder, String.class))
+                    .asType(methodType(Object.class, Object.class, String.class));
+            factory = lookup.findVirtual(builder, "factory", methodType(ThreadFactory.class))
+                    .asType(methodType(ThreadFactory.class, Object.class));
+        } catch (ReflectiveOperationException e) {
+            // JDK 21 以下
+        }
+        OF_VIRTUAL = ofVirtual;
+        NAME = name;
+        FACTORY = factory;
+    }
+
+    private VirtualThreads() {
+    }
+
+    public static boolean available() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * 开启虚拟线程，当前 JDK 不支持时返回 false
+     */
+    public static boolean enable() {
+        enabled = available();
+        return enabled;
+    }
+
+    public static boolean enabled() {
+        return enabled;
+    }
+
+    /**
+     * 创建名为 prefix 加序号的线程；开启虚拟线程时为虚拟线程，否则为守护平台线程
+     */
+    public static ThreadFactory factory(String prefix) {
+        if (!enabled) {
+            AtomicLong n = new AtomicLong();
+            return r -> {
+                Thread t = new Thread(r, prefix + n.getAndIncrement());
+                t.setDaemon(true);
+                return t;
+            };
+        }
+        try {
+            return (ThreadFactory) FACTORY.invokeExact((Object) NAME.invokeExact((Object) OF_VIRTUAL.invokeExact(), prefix));
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 创建（不启动）名为 name 的线程，虚拟线程或守护平台线程
+     */
+    public static Thread newThread(String name, Runnable task) {
+        Thread t = factory(name).newThread(task);
+        t.setName(name);
+        return t;
+    }
+}
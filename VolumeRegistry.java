@@ -0,0 +1,156 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 目的目录所在卷的登记表，代替每个文件都调用 mountPoint + getUsableSpace。
+ * 每个目的目录只解析一次 FileStore，同一个卷上的多个目的目录共用一个 Volume，空间不会被重复计算。
+ * 进程内写入的字节数从上次测得的可用空间中扣除；距上次测量超过 syncMillis，
+ * 或估计的可用空间低于 lowWater 且距上次测量超过 syncMillis 的 1/10 时才重新调用 getUsableSpace。
+ * 快满的磁盘也不会每个文件都测量一次：调用方（DstScheduler）持有锁时测量，每次都测量会让所有复制线程排队等这个系统调用。
+ */
+public class VolumeRegistry {
+
+    public static final long DEFAULT_SYNC_MILLIS = 5000;
+    public static final long DEFAULT_LOW_WATER = 1024L * 1024 * 1024;
+    private static final long LOW_WATER_DIVISOR = 10; // 低于 lowWater 时测量间隔为 syncMillis 的 1/10
+
+    public static class Volume {
+        final int id;
+        final FileStore store;
+        final File mountPoint;
+        private long synced;   // 上次测得的可用空间
+        private long written;  // 上次测量之后写入的字节数
+        private long reserved; // 已预留、尚未写完的字节数
+        private long syncedAt;
+
+        Volume(int id, FileStore store, File mountPoint) {
+            this.id = id;
+            this.store = store;
+            this.mountPoint = mountPoint;
+        }
+
+        /**
+         * 估计的可用空间（不含预留）
+         */
+        public synchronized long usable() {
+            return synced - written;
+        }
+
+        public synchronized long available() {
+            return synced - written - reserved;
+        }
+
+        public synchronized void reserve(long bytes) {
+            reserved += bytes;
+        }
+
+        /**
+         * 释放预留的 bytes 字节，实际写入了 written 字节（压缩时小于预留的字节数）
+         */
+        public synchronized void release(long bytes, long written) {
+            reserved -= bytes;
+            this.written += written;
+        }
+
+        public synchronized void written(long bytes) {
+            written += bytes;
+        }
+
+        synchronized long syncedAt() {
+            return syncedAt;
+        }
+
+        synchronized boolean needsSync(long size, long syncNanos, long lowWater) {
+            long age = System.nanoTime() - syncedAt;
+            return age > syncNanos || synced - written - reserved - size < lowWater && age > syncNanos / LOW_WATER_DIVISOR;
+        }
+
+        public synchronized void sync() {
+            synced = mountPoint.getUsableSpace();
+            written = 0;
+            syncedAt = System.nanoTime();
+        }
+
+        @Override
+        public String toString() {
+            return mountPoint.toString();
+        }
+    }
+
+    private final long syncNanos;
+    private final long lowWater;
+    private final Map<String, Volume> byDir = new ConcurrentHashMap<>();
+    private final Map<FileStore, Volume> byStore = new ConcurrentHashMap<>();
+    private final AtomicInteger ids = new AtomicInteger();
+
+    public VolumeRegistry() {
+        this(DEFAULT_SYNC_MILLIS, DEFAULT_LOW_WATER);
+    }
+
+    public VolumeRegistry(long syncMillis, long lowWater) {
+        this.syncNanos = syncMillis * 1_000_000L;
+        this.lowWater = lowWater;
+    }
+
+    /**
+     * 目录所在的卷，只在第一次查询时解析
+     */
+    public Volume volumeOf(String dir) {
+        return byDir.computeIfAbsent(dir, d -> {
+            try {
+                FileStore store = Files.getFileStore(Path.of(d));
+                return byStore.computeIfAbsent(store, s -> {
+                    try {
+                        Volume volume = new Volume(ids.getAndIncrement(), s, mountPoint(d));
+                        volume.sync();
+                        return volume;
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * 按需重新测量，返回估计的可用空间（不含预留）
+     */
+    public long usable(Volume volume, long size) {
+        if (needsSync(volume, size)) volume.sync();
+        return volume.usable();
+    }
+
+    /**
+     * 距上次测量太久，或写入 size 字节后可用空间低于 lowWater 且距上次测量超过 syncMillis 的 1/10
+     */
+    public boolean needsSync(Volume volume, long size) {
+        return volume.needsSync(size, syncNanos, lowWater);
+    }
+
+    /**
+     * 距上次测量超过 syncMillis
+     */
+    public boolean expired(Volume volume) {
+        return System.nanoTime() - volume.syncedAt() > syncNanos;
+    }
+
+    public static File mountPoint(String p) throws IOException {
+        FileStore fs = Files.getFileStore(Path.of(p));
+        Path temp = Path.of(p).toAbsolutePath();
+        Path mountpoint = temp;
+
+        while( (temp = temp.getParent()) != null && fs.equals(Files.getFileStore(temp)) ) {
+            mountpoint = temp;
+        }
+        return new File(mountpoint.toString());
+    }
+}
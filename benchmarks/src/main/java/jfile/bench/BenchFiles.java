@@ -0,0 +1,88 @@
+package jfile.bench;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * 基准测试用的测试数据，放在 -Djfile.bench.dir 指定的目录（默认 java.io.tmpdir/jfile-bench）。
+ * 生成的源文件和目录树会保留下来，下次运行直接复用。
+ */
+final class BenchFiles {
+
+    private BenchFiles() {
+    }
+
+    static Path dir(String name) throws IOException {
+        Path base = Paths.get(System.getProperty("jfile.bench.dir",
+                Paths.get(System.getProperty("java.io.tmpdir"), "jfile-bench").toString()));
+        return Files.createDirectories(base.resolve(name));
+    }
+
+    /**
+     * size 字节的随机内容文件
+     */
+    static Path sourceFile(long size) throws IOException {
+        Path file = dir("copy").resolve("src-" + size);
+        if (Files.exists(file) && Files.size(file) == size) return file;
+        byte[] buffer = new byte[1024 * 1024];
+        new Random(size).nextBytes(buffer);
+        try (OutputStream out = Files.newOutputStream(file)) {
+            for (long left = size; left > 0; left -= buffer.length) out.write(buffer, 0, (int) Math.min(buffer.length, left));
+        }
+        return file;
+    }
+
+    /**
+     * size 字节的 CSV 文本，用于压缩
+     */
+    static Path textFile(long size) throws IOException {
+        Path file = dir("copy").resolve("text-" + size + ".csv");
+        if (Files.exists(file) && Files.size(file) == size) return file;
+        Random random = new Random(size);
+        String[] names = {"alpha", "beta", "gamma", "delta"};
+        StringBuilder sb = new StringBuilder();
+        try (OutputStream out = Files.newOutputStream(file)) {
+            for (long left = size; left > 0; ) {
+                sb.setLength(0);
+                sb.append(size - left).append(',').append(names[random.nextInt(names.length)]).append(',')
+                        .append(random.nextDouble()).append(",item-").append(random.nextInt(1000)).append('\n');
+                byte[] line = sb.toString().getBytes(StandardCharsets.US_ASCII);
+                int n = (int) Math.min(line.length, left);
+                out.write(line, 0, n);
+                left -= n;
+            }
+        }
+        return file;
+    }
+
+    /**
+     * 含 entries 个空文件的目录树，每个目录 100 个文件，每 100 个目录再上一层
+     */
+    static Path tree(int entries) throws IOException {
+        Path root = dir("tree-" + entries);
+        Path done = dir("tree-" + entries + ".done");
+        if (Files.exists(done.resolve("ok"))) return root;
+        for (int i = 0; i < entries; i++) {
+            Path d = root.resolve("d" + (i / 10000)).resolve("d" + (i / 100 % 100));
+            if (i % 100 == 0) Files.createDirectories(d);
+            Path f = d.resolve("file-" + i + ".dat");
+            if (!Files.exists(f)) Files.createFile(f);
+        }
+        Files.createFile(done.resolve("ok"));
+        return root;
+    }
+
+    static void deleteRecursively(Path path) throws IOException {
+        if (!Files.exists(path)) return;
+        try (Stream<Path> walk = Files.walk(path)) {
+            walk.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+}
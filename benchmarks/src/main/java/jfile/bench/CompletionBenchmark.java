@@ -0,0 +1,65 @@
+package jfile.bench;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * 复制完成后记录文件路径的耗时：legacy 为原来的 writeStringToFile（每条记录打开、写入、关闭一次文件），
+ * journal-* 为 FinishedJournal 的组提交，后缀为 fsync 策略。4 个复制线程同时记录。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+public class CompletionBenchmark {
+
+    @Param({"legacy", "journal-none", "journal-batch"})
+    public String mode;
+
+    private Path log;
+    private Object journal;
+    private final AtomicLong seq = new AtomicLong();
+
+    @Setup(Level.Iteration)
+    public void setup() throws Throwable {
+        log = BenchFiles.dir("completion").resolve("finishedFiles-" + mode + ".txt");
+        Files.deleteIfExists(log);
+        if (mode.startsWith("journal-")) {
+            Object fsync = Targets.enumValue(Targets.FSYNC, mode.substring("journal-".length()).toUpperCase());
+            journal = (Object) Targets.NEW_JOURNAL.invokeExact(log, fsync, 1000L);
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws Throwable {
+        if (journal != null) Targets.JOURNAL_CLOSE.invokeExact(journal);
+        journal = null;
+        Files.deleteIfExists(log);
+    }
+
+    @Benchmark
+    public void complete() throws Throwable {
+        String line = "/data/src/dir/file-" + seq.incrementAndGet() + ".dat";
+        if (journal != null) Targets.JOURNAL_APPEND.invokeExact(journal, line);
+        else writeStringToFile(log.toString(), line);
+    }
+
+    // 与 DirMove / DirCopy_win 中的 writeStringToFile 相同
+    private static void writeStringToFile(String filename, String str) throws IOException {
+        try (PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(filename, true)))) {
+            pw.println(str);
+            pw.flush();
+        }
+    }
+}
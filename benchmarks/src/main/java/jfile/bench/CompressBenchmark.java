@@ -0,0 +1,55 @@
+package jfile.bench;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * 复制一个 64MB 的 CSV 文件：channel 为不压缩的 transferTo，gzip 为边复制边压缩，threads 为压缩线程数。
+ * 写入的字节数越少，目的磁盘的带宽越不容易成为瓶颈；这里的源文件和目的文件都在页缓存中，测到的主要是压缩的 CPU 开销。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class CompressBenchmark {
+
+    @Param({"67108864"})
+    public long size;
+
+    @Param({"channel", "gzip"})
+    public String engine;
+
+    @Param({"1", "6"})
+    public int level;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private Object copyEngine;
+    private File src;
+    private File dst;
+
+    @Setup(Level.Trial)
+    public void setup() throws Throwable {
+        src = BenchFiles.textFile(size).toFile();
+        dst = BenchFiles.dir("copy").resolve("dst-compress-" + engine + "-" + level + "-" + threads).toFile();
+        copyEngine = engine.equals("gzip")
+                ? (Object) Targets.NEW_GZIP_ENGINE.invokeExact(level, threads)
+                : (Object) Targets.ENGINE_FOR_NAME.invokeExact(engine);
+    }
+
+    @Benchmark
+    public long copy() throws Throwable {
+        return (long) Targets.COPY.invokeExact(copyEngine, src, dst);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(dst.toPath());
+    }
+}
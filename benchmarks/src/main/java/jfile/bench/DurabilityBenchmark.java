@@ -0,0 +1,87 @@
+package jfile.bench;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * 4 个复制线程各复制 files 个小文件（写 .part、按落盘策略落盘、改名、记录完成）的耗时，后缀为 --durability 级别。
+ * 每次调用结束时关闭 Durability，batch 和 end 还没落盘的文件也计入耗时，测到的是所有文件和完成记录都已落盘的时间。
+ * 结果与目的盘有关，tmpfs 上 fsync 几乎不花时间，用 -Djfile.bench.dir 指向要测的磁盘。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class DurabilityBenchmark {
+
+    private static final int THREADS = 4;
+
+    @Param({"none", "file", "batch", "end"})
+    public String level;
+
+    @Param({"100"})
+    public int files;
+
+    @Param({"4096", "65536"})
+    public long size;
+
+    private Object engine;
+    private Object durabilityLevel;
+    private File src;
+    private Path dir;
+    private Path log;
+    private Object journal;
+    private Object sink;
+
+    @Setup(Level.Trial)
+    public void setup() throws Throwable {
+        engine = (Object) Targets.ENGINE_FOR_NAME.invokeExact("channel");
+        durabilityLevel = Targets.enumValue(Targets.DURABILITY_LEVEL, level.toUpperCase());
+        src = BenchFiles.sourceFile(size).toFile();
+        dir = BenchFiles.dir("durability-" + level);
+        log = dir.resolve("finishedFiles.txt");
+        journal = (Object) Targets.NEW_JOURNAL.invokeExact(log, Targets.enumValue(Targets.FSYNC, "BATCH"), 1000L);
+        sink = Targets.sink(journal);
+    }
+
+    @Benchmark
+    public void copy() throws Throwable {
+        Object durability = (Object) Targets.NEW_DURABILITY.invokeExact(durabilityLevel, 64, 1000L, sink);
+        AtomicInteger next = new AtomicInteger();
+        Thread[] threads = new Thread[THREADS];
+        Throwable[] failure = new Throwable[1];
+        for (int t = 0; t < THREADS; t++) {
+            threads[t] = new Thread(() -> {
+                try {
+                    for (int i; (i = next.getAndIncrement()) < files; ) {
+                        File dst = dir.resolve("f" + i).toFile();
+                        File part = new File(dst.getPath() + ".part");
+                        long n = (long) Targets.COPY.invokeExact(engine, src, part);
+                        Targets.DURABILITY_BEFORE_RENAME.invokeExact(durability, part);
+                        Targets.PROMOTE.invokeExact(part, dst);
+                        Targets.DURABILITY_COMPLETED.invokeExact(durability, dst, dst.getPath());
+                    }
+                } catch (Throwable e) {
+                    failure[0] = e;
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread t : threads) t.join();
+        Targets.DURABILITY_CLOSE.invokeExact(durability);
+        if (failure[0] != null) throw failure[0];
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Throwable {
+        Targets.JOURNAL_CLOSE.invokeExact(journal);
+        BenchFiles.deleteRecursively(dir);
+    }
+}
@@ -0,0 +1,95 @@
+package jfile.bench;
+
+import com.sun.nio.file.ExtendedOpenOption;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * 复制完成后顺序读回目的文件的耗时，preallocate 为 true 时写入前用 Preallocator 分配整个文件。
+ * 准备阶段模拟几个复制线程同时写同一块盘：files 个文件轮流各写 1MB，每轮 force 一次（相当于脏页回写），
+ * 边写边分配时各文件的块交错在一起。读回用 O_DIRECT，不受页缓存影响；碎片的影响在机械盘上最明显，
+ * 用 -Djfile.bench.dir 指向要测的磁盘，filefrag 可查看生成的文件有多少个 extent。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class PreallocateBenchmark {
+
+    private static final int CHUNK = 1024 * 1024;
+    private static final int ALIGNMENT = 4096;
+
+    @Param({"false", "true"})
+    public boolean preallocate;
+
+    @Param({"4"})
+    public int files;
+
+    @Param({"268435456"})
+    public long size;
+
+    private Path dir;
+    private Path[] paths;
+    private ByteBuffer buffer;
+
+    @Setup(Level.Trial)
+    public void setup() throws Throwable {
+        dir = BenchFiles.dir("preallocate-" + preallocate);
+        BenchFiles.deleteRecursively(dir);
+        dir = BenchFiles.dir("preallocate-" + preallocate);
+        Object preallocator = (Object) Targets.NEW_PREALLOCATOR.invokeExact(1L);
+        byte[] data = new byte[CHUNK];
+        new Random(size).nextBytes(data);
+        paths = new Path[files];
+        FileChannel[] out = new FileChannel[files];
+        try {
+            for (int i = 0; i < files; i++) {
+                paths[i] = dir.resolve("f" + i);
+                if (preallocate) {
+                    boolean allocated = (boolean) Targets.PREALLOCATE.invokeExact(preallocator, paths[i], size);
+                    if (!allocated) throw new IllegalStateException(dir + " 不支持预分配");
+                }
+                out[i] = FileChannel.open(paths[i], StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+            }
+            for (long written = 0; written < size; written += CHUNK) {
+                for (FileChannel channel : out) {
+                    ByteBuffer b = ByteBuffer.wrap(data, 0, (int) Math.min(CHUNK, size - written));
+                    while (b.hasRemaining()) channel.write(b);
+                    channel.force(false);
+                }
+            }
+        } finally {
+            for (FileChannel channel : out) if (channel != null) channel.close();
+        }
+        buffer = ByteBuffer.allocateDirect(8 * CHUNK + ALIGNMENT).alignedSlice(ALIGNMENT);
+    }
+
+    @Benchmark
+    public long readBack() throws Exception {
+        long total = 0;
+        for (Path path : paths) {
+            try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ, ExtendedOpenOption.DIRECT)) {
+                for (long position = 0; ; position += buffer.position()) {
+                    buffer.clear();
+                    if (in.read(buffer, position) <= 0) break;
+                    total += buffer.position();
+                }
+            }
+        }
+        return total;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        BenchFiles.deleteRecursively(dir);
+    }
+}
@@ -0,0 +1,74 @@
+package jfile.bench;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * 扫描源目录并去重（scanSrcDir 去掉入队的部分）：
+ * forkJoin 为 DirWalker + PathIndex，legacy 为原来的 listFiles 循环 + ConcurrentSkipListSet。
+ * 第一次运行会生成 entries 个空文件的目录树。
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class ScanBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    public int entries;
+
+    private Path root;
+    private ForkJoinPool pool;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        root = BenchFiles.tree(entries);
+        pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public Object forkJoin() throws Throwable {
+        Object index = (Object) Targets.NEW_PATH_INDEX.invokeExact();
+        Object visitor = Targets.visitor((file, attrs) -> {
+            try {
+                boolean ignored = (boolean) Targets.PATH_INDEX_ADD.invokeExact(index, file.toString().trim());
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        Targets.WALK.invokeExact(pool, root, true, visitor);
+        return index;
+    }
+
+    @Benchmark
+    public Object legacy() {
+        ConcurrentSkipListSet<String> allFileSet = new ConcurrentSkipListSet<>();
+        HashSet<File> dirSet = new HashSet<>();
+        for (File file : root.toFile().listFiles()) {
+            if (file.isFile()) allFileSet.add(file.toString().trim());
+            else dirSet.add(file);
+        }
+        while (!dirSet.isEmpty()) {
+            File file = dirSet.iterator().next();
+            dirSet.remove(file);
+            for (File afile : file.listFiles()) {
+                if (afile.isFile()) allFileSet.add(afile.toString().trim());
+                else dirSet.add(afile);
+            }
+        }
+        return allFileSet;
+    }
+}
@@ -0,0 +1,94 @@
+package jfile.bench;
+
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * 已扫描文件集合（allFileSet）在多线程下的 add/contains 吞吐：pathIndex 为 PathIndex，skipList 为原来的 ConcurrentSkipListSet。
+ * 每轮先放入 preload 条路径；mixed 组为 2 个线程加入新路径、6 个线程查询已有路径。
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class SeenSetBenchmark {
+
+    private static final int LOOKUPS = 1 << 16;
+
+    @Param({"pathIndex", "skipList"})
+    public String impl;
+
+    @Param({"1000000"})
+    public int preload;
+
+    private Object index;
+    private ConcurrentSkipListSet<String> skipList;
+    private String[] existing;
+
+    static String path(long i) {
+        return "/data/src/dir" + (i % 1000) + "/sub" + (i % 37) + "/file-" + i + ".dat";
+    }
+
+    @Setup(Level.Iteration)
+    public void setup() throws Throwable {
+        if (impl.equals("pathIndex")) index = (Object) Targets.NEW_PATH_INDEX.invokeExact();
+        else skipList = new ConcurrentSkipListSet<>();
+        for (int i = 0; i < preload; i++) add(path(i));
+        existing = new String[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) existing[i] = path((long) i * 7919 % preload);
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private static int threads;
+        private long next;
+        private int lookup;
+
+        @Setup(Level.Iteration)
+        public void setup() {
+            synchronized (Cursor.class) {
+                next = 1_000_000_000L * ++threads; // 每个线程加入的路径互不相同
+            }
+        }
+    }
+
+    private boolean add(String path) throws Throwable {
+        if (index != null) return (boolean) Targets.PATH_INDEX_ADD.invokeExact(index, path);
+        return skipList.add(path);
+    }
+
+    private boolean contains(String path) throws Throwable {
+        if (index != null) return (boolean) Targets.PATH_INDEX_CONTAINS.invokeExact(index, path);
+        return skipList.contains(path);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public boolean add(Cursor cursor) throws Throwable {
+        return add(path(cursor.next++));
+    }
+
+    @Benchmark
+    @Threads(8)
+    public boolean contains(Cursor cursor) throws Throwable {
+        return contains(existing[cursor.lookup++ & (LOOKUPS - 1)]);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(2)
+    public boolean mixedAdd(Cursor cursor) throws Throwable {
+        return add(path(cursor.next++));
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(6)
+    public boolean mixedContains(Cursor cursor) throws Throwable {
+        return contains(existing[cursor.lookup++ & (LOOKUPS - 1)]);
+    }
+}
@@ -0,0 +1,137 @@
+package jfile.bench;
+
+import java.io.File;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandleProxies;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.BiConsumer;
+
+import static java.lang.invoke.MethodType.methodType;
+
+/**
+ * JFile 的类都在默认包里，具名包不能 import，而 JMH 又不允许基准测试放在默认包。
+ * 这里用 MethodHandle 绑定要测的方法；句柄是 static final 的，JIT 会把调用内联，不影响测量结果。
+ */
+final class Targets {
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.publicLookup();
+
+    static final Class<?> COPY_ENGINE = load("CopyEngine");
+    static final Class<?> PATH_INDEX = load("PathIndex");
+    static final Class<?> DIR_WALKER_VISITOR = load("DirWalker$Visitor");
+    static final Class<?> FINISHED_JOURNAL = load("FinishedJournal");
+    static final Class<?> FSYNC = load("FinishedJournal$Fsync");
+    static final Class<?> DURABILITY = load("Durability");
+    static final Class<?> DURABILITY_LEVEL = load("Durability$Level");
+    static final Class<?> DURABILITY_SINK = load("Durability$Sink");
+
+    static final MethodHandle ENGINE_FOR_NAME = findStatic(COPY_ENGINE, "forName", methodType(COPY_ENGINE, String.class))
+            .asType(methodType(Object.class, String.class));
+    static final MethodHandle COPY = findVirtual(COPY_ENGINE, "copy", methodType(long.class, File.class, File.class))
+            .asType(methodType(long.class, Object.class, File.class, File.class));
+    static final MethodHandle COPY_CRC = findVirtual(COPY_ENGINE, "copy", methodType(long.class, File.class, File.class, long[].class))
+            .asType(methodType(long.class, Object.class, File.class, File.class, long[].class));
+    static final MethodHandle NEW_GZIP_ENGINE = constructor(load("GzipCopyEngine"), methodType(void.class, int.class, int.class))
+            .asType(methodType(Object.class, int.class, int.class));
+    static final MethodHandle NEW_RANGE_ENGINE = constructor(load("RangeCopyEngine"), methodType(void.class, COPY_ENGINE, long.class, int.class))
+            .asType(methodType(Object.class, Object.class, long.class, int.class));
+
+    static final MethodHandle NEW_PATH_INDEX = constructor(PATH_INDEX, methodType(void.class))
+            .asType(methodType(Object.class));
+    static final MethodHandle PATH_INDEX_ADD = findVirtual(PATH_INDEX, "add", methodType(boolean.class, String.class))
+            .asType(methodType(boolean.class, Object.class, String.class));
+    static final MethodHandle PATH_INDEX_CONTAINS = findVirtual(PATH_INDEX, "contains", methodType(boolean.class, String.class))
+            .asType(methodType(boolean.class, Object.class, String.class));
+
+    static final MethodHandle WALK = findStatic(load("DirWalker"), "walk",
+            methodType(void.class, ForkJoinPool.class, Path.class, boolean.class, DIR_WALKER_VISITOR))
+            .asType(methodType(void.class, ForkJoinPool.class, Path.class, boolean.class, Object.class));
+
+    static final MethodHandle NEW_JOURNAL = constructor(FINISHED_JOURNAL, methodType(void.class, Path.class, FSYNC, long.class))
+            .asType(methodType(Object.class, Path.class, Object.class, long.class));
+    static final MethodHandle JOURNAL_APPEND = findVirtual(FINISHED_JOURNAL, "append", methodType(void.class, String.class))
+            .asType(methodType(void.class, Object.class, String.class));
+    static final MethodHandle JOURNAL_CLOSE = findVirtual(FINISHED_JOURNAL, "close", methodType(void.class))
+            .asType(methodType(void.class, Object.class));
+
+    static final MethodHandle NEW_DURABILITY = constructor(DURABILITY, methodType(void.class, DURABILITY_LEVEL, int.class, long.class, DURABILITY_SINK))
+            .asType(methodType(Object.class, Object.class, int.class, long.class, Object.class));
+    static final MethodHandle DURABILITY_BEFORE_RENAME = findVirtual(DURABILITY, "beforeRename", methodType(void.class, File.class))
+            .asType(methodType(void.class, Object.class, File.class));
+    static final MethodHandle DURABILITY_COMPLETED = findVirtual(DURABILITY, "completed", methodType(void.class, File.class, String.class))
+            .asType(methodType(void.class, Object.class, File.class, String.class));
+    static final MethodHandle DURABILITY_CLOSE = findVirtual(DURABILITY, "close", methodType(void.class))
+            .asType(methodType(void.class, Object.class));
+    static final MethodHandle NEW_PREALLOCATOR = constructor(load("Preallocator"), methodType(void.class, long.class))
+            .asType(methodType(Object.class, long.class));
+    static final MethodHandle PREALLOCATE = findVirtual(load("Preallocator"), "preallocate", methodType(boolean.class, Path.class, long.class))
+            .asType(methodType(boolean.class, Object.class, Path.class, long.class));
+    static final MethodHandle VIRTUAL_ENABLE = findStatic(load("VirtualThreads"), "enable", methodType(boolean.class));
+    static final MethodHandle VIRTUAL_FACTORY = findStatic(load("VirtualThreads"), "factory", methodType(ThreadFactory.class, String.class));
+    static final MethodHandle PROMOTE = findStatic(load("ResumableCopy"), "promote", methodType(void.class, File.class, File.class));
+
+    private Targets() {
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static Object enumValue(Class<?> type, String name) {
+        return Enum.valueOf((Class) type, name);
+    }
+
+    /**
+     * 实现 DirWalker.Visitor
+     */
+    static Object visitor(BiConsumer<Path, BasicFileAttributes> consumer) throws ReflectiveOperationException {
+        MethodHandle accept = LOOKUP.findVirtual(BiConsumer.class, "accept", methodType(void.class, Object.class, Object.class))
+                .bindTo(consumer)
+                .asType(methodType(void.class, Path.class, BasicFileAttributes.class));
+        return MethodHandleProxies.asInterfaceInstance(DIR_WALKER_VISITOR, accept);
+    }
+
+    /**
+     * 实现 Durability.Sink，完成记录写入 journal
+     */
+    static Object sink(Object journal) throws ReflectiveOperationException {
+        MethodHandle appendAll = LOOKUP.findVirtual(FINISHED_JOURNAL, "appendAll", methodType(void.class, List.class))
+                .bindTo(journal);
+        return MethodHandleProxies.asInterfaceInstance(DURABILITY_SINK, appendAll);
+    }
+
+    private static Class<?> load(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static MethodHandle findStatic(Class<?> type, String name, MethodType mt) {
+        try {
+            return LOOKUP.findStatic(type, name, mt);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static MethodHandle findVirtual(Class<?> type, String name, MethodType mt) {
+        try {
+            return LOOKUP.findVirtual(type, name, mt);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static MethodHandle constructor(Class<?> type, MethodType mt) {
+        try {
+            return LOOKUP.findConstructor(type, mt);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+}
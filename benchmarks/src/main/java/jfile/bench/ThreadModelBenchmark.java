@@ -0,0 +1,86 @@
+package jfile.bench;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * 复制 files 个小文件，同时复制 concurrency 个：pool 为固定的复制线程，
+ * virtual 为 --virtual true 的做法，每个文件一个虚拟线程，用 Semaphore 限制同时复制的文件数。
+ * virtual 需要用 JDK 21 及以上运行，否则准备阶段报错。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ThreadModelBenchmark {
+
+    @Param({"pool", "virtual"})
+    public String model;
+
+    @Param({"2000"})
+    public int files;
+
+    @Param({"4", "64"})
+    public int concurrency;
+
+    private Object engine;
+    private File src;
+    private Path dir;
+    private ExecutorService pool;
+    private ThreadFactory factory;
+
+    @Setup(Level.Trial)
+    public void setup() throws Throwable {
+        engine = (Object) Targets.ENGINE_FOR_NAME.invokeExact("channel");
+        src = BenchFiles.sourceFile(4096).toFile();
+        dir = BenchFiles.dir("threads-" + model);
+        if (model.equals("pool")) {
+            pool = Executors.newFixedThreadPool(concurrency);
+        } else {
+            if (!(boolean) Targets.VIRTUAL_ENABLE.invokeExact()) throw new IllegalStateException("需要 JDK 21 及以上");
+            factory = (ThreadFactory) Targets.VIRTUAL_FACTORY.invokeExact("copy-");
+        }
+    }
+
+    @Benchmark
+    public void copy() throws Exception {
+        CountDownLatch done = new CountDownLatch(files);
+        Semaphore running = new Semaphore(concurrency);
+        for (int i = 0; i < files; i++) {
+            File dst = dir.resolve("f" + i).toFile();
+            Runnable task = () -> {
+                try {
+                    long n = (long) Targets.COPY.invokeExact(engine, src, dst);
+                } catch (Throwable e) {
+                    throw new IllegalStateException(e);
+                } finally {
+                    if (pool == null) running.release();
+                    done.countDown();
+                }
+            };
+            if (pool != null) {
+                pool.execute(task);
+            } else {
+                running.acquire();
+                factory.newThread(task).start();
+            }
+        }
+        done.await();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        if (pool != null) pool.shutdown();
+        BenchFiles.deleteRecursively(dir);
+    }
+}